@@ -0,0 +1,644 @@
+package com.github.jpingus;
+
+import org.apache.commons.jexl3.JexlArithmetic;
+
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Inner structure of the aggregator, subject to change...
+ * <p>
+ * An aggregator either holds references resolved at aggregation time or the collected values
+ * themselves in a store (a primitive column when the context collects eagerly) together with a
+ * running sum, kept while the values are numbers, so that sum/count/avg do not need any evaluation.
+ * String values in a column are kept as codes of the context's dictionary.
+ * <p>
+ * Results of sum, join, wavg and statistics are memoised until the aggregator changes (append, clear), is
+ * invalidated by an execute assigning a field it references or the
+ * context's epoch changes. The membership index used by contains is built on first use and
+ * maintained on append.
+ * <p>
+ * An aggregator configured with a sketch only counts its elements and feeds them to the sketch,
+ * an iterable sketch (bitmap) gives the values to iterate. Functions use the column or the sketch
+ * of the built-in stores directly when they can.
+ */
+class Aggregator {
+    static final String TRUNCATED = "...";
+    private static final int ESTIMATED_LENGTH = 8;
+    private final String name;
+    /**
+     * The estimated bytes of a reference and of its slot in the list
+     */
+    private static final int REFERENCE_BYTES = 32;
+    private List<Reference> references;
+    private AggregatorStore store;
+    private Column values;
+    private final Dictionary dictionary;
+    private Sum sum;
+    private final JexlArithmetic arithmetic;
+    private final BiFunction<JexlArithmetic, Dictionary, AggregatorStore> stores;
+    private final Sketch sketch;
+    private Map<Object, Aggregator> groups;
+    private Map<String, Object> memo;
+    private int memoEpoch;
+    private Set<Object> index;
+    private Column weights;
+    private int indexEpoch;
+
+    /**
+     * @param name       the aggregator's name
+     * @param arithmetic the arithmetic used to aggregate values
+     * @param stores     creates the store of the aggregator and its groups, null to keep references
+     * @param dictionary the dictionary encoding the String values kept in a column, null to keep objects
+     */
+    Aggregator(String name, JexlArithmetic arithmetic, BiFunction<JexlArithmetic, Dictionary, AggregatorStore> stores,
+               Dictionary dictionary) {
+        this.name = name;
+        this.arithmetic = arithmetic;
+        this.dictionary = dictionary;
+        this.stores = stores;
+        this.store = stores != null ? stores.apply(arithmetic, dictionary) : null;
+        this.sketch = store instanceof SketchStore ? ((SketchStore) store).getSketch() : null;
+        this.values = store instanceof ColumnStore ? ((ColumnStore) store).getColumn() : null;
+        this.references = store == null ? new ArrayList<>() : null;
+        this.sum = store != null && sketch == null ? new Sum(arithmetic) : null;
+    }
+
+    /**
+     * Appends an element to the aggregator, an aggregator with a store keeps the value and maintains
+     * the running sum with the same arithmetic JEXL would use for "a+b+c..." until a value is not a number:
+     * the sum is then computed (and memoised) from the values when asked
+     *
+     * @param reference the handle on the element
+     * @param value     the value of the element when collected (never null)
+     * @param weight    the weight of the element or null if not weighted
+     */
+    void append(Reference reference, Object value, Object weight) {
+        if (store != null) {
+            store.append(value);
+            if (sum != null) {
+                if (Sum.isNumber(value))
+                    sum.add(value);
+                else
+                    sum = null;
+            }
+        } else {
+            references.add(reference);
+        }
+        memo = null;
+        if (index != null)
+            index.add(value);
+        if (sketch == null && (weight != null || weights != null))
+            appendWeight(weight == null ? 1.0d : arithmetic.toDouble(weight));
+    }
+
+    private void appendWeight(double weight) {
+        if (weights == null) {
+            weights = new Column();
+            for (int i = 1; i < count(); i++)
+                weights.add(1.0d);
+        }
+        weights.add(weight);
+    }
+
+    /**
+     * The group of the aggregator for a key, created on first use
+     *
+     * @param key the key of the group
+     * @return the group's aggregator
+     */
+    Aggregator group(Object key) {
+        if (groups == null)
+            groups = new LinkedHashMap<>();
+        return groups.computeIfAbsent(key, k -> new Aggregator(name, arithmetic, stores, dictionary));
+    }
+
+    /**
+     * @param key the key of the group
+     * @return the group's aggregator or null if nothing was collected for this key
+     */
+    Aggregator getGroup(Object key) {
+        return groups != null ? groups.get(key) : null;
+    }
+
+    /**
+     * Applies an aggregation on every group
+     *
+     * @param function the aggregation
+     * @return the aggregated value per key, in the order keys were first collected
+     */
+    Map<Object, Object> groups(Function<Aggregator, Object> function) {
+        Map<Object, Object> ret = new LinkedHashMap<>();
+        if (groups != null)
+            groups.forEach((key, group) -> ret.put(key, function.apply(group)));
+        return ret;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isEmpty() {
+        return count() == 0;
+    }
+
+    int count() {
+        return store != null ? store.count() : references.size();
+    }
+
+    /**
+     * @return the number of values iterated by forEach: the elements or the distinct values of a bitmap
+     */
+    private int iterated() {
+        if (sketch instanceof Bitmap)
+            return (int) ((Bitmap) sketch).cardinality();
+        return sketch != null ? 0 : count();
+    }
+
+    /**
+     * Appends the elements of another aggregator (e.g. from a context filled in parallel), stores merging
+     * themselves (sketches of the same kind) are merged, otherwise the values of the other aggregator are read
+     * and appended
+     *
+     * @param other        the aggregator to merge
+     * @param otherContext the context of the other aggregator
+     */
+    void merge(Aggregator other, AggregatorContext otherContext) {
+        if (store != null && other.store != null && weights == null && other.weights == null
+                && store.merge(other.store)) {
+            if (sum != null && other.sum != null && !other.isEmpty())
+                sum.add(other.sum.get());
+            else if (other.sum == null && !other.isEmpty())
+                sum = null;
+            memo = null;
+            index = null;
+        } else {
+            int[] i = new int[1];
+            other.forEach(otherContext, value -> {
+                Object weight = other.weights != null ? other.weights.get(i[0]) : null;
+                i[0]++;
+                if (value != null)
+                    append(Reference.of(value), value, weight);
+            });
+        }
+        if (other.groups != null)
+            other.groups.forEach((key, group) -> group(key).merge(group, otherContext));
+    }
+
+    /**
+     * Applies an action on every value of the aggregator, references are resolved against the
+     * context and "this" is restored afterwards
+     *
+     * @param context the context used to resolve references
+     * @param action  the action to apply on each value
+     */
+    void forEach(AggregatorContext context, Consumer<Object> action) {
+        forEachWhile(context, value -> {
+            action.accept(value);
+            return true;
+        });
+    }
+
+    /**
+     * Same as forEach but stops as soon as the action returns false
+     *
+     * @param context the context used to resolve references
+     * @param action  the action to apply on each value, returns false to stop
+     */
+    void forEachWhile(AggregatorContext context, Predicate<Object> action) {
+        if (values != null) {
+            for (int i = 0; i < values.size(); i++) {
+                if (!action.test(values.get(i)))
+                    return;
+            }
+            return;
+        }
+        if (store != null) {
+            for (Object value : store) {
+                if (!action.test(value))
+                    return;
+            }
+            return;
+        }
+        Object self = context.get("this");
+        try {
+            for (Reference reference : references) {
+                if (!action.test(reference.resolve(context)))
+                    return;
+            }
+        } finally {
+            context.set("this", self);
+        }
+    }
+
+    private Object memoise(String function, AggregatorContext context, Supplier<Object> supplier) {
+        if (memo == null || memoEpoch != context.getEpoch()) {
+            memo = new HashMap<>();
+            memoEpoch = context.getEpoch();
+        }
+        if (memo.containsKey(function))
+            return memo.get(function);
+        Object ret = supplier.get();
+        memo.put(function, ret);
+        return ret;
+    }
+
+    Object sum(AggregatorContext context) {
+        if (sum != null)
+            return sum.get();
+        return memoise("sum", context, () -> {
+            Sum total = new Sum(arithmetic);
+            forEach(context, value -> {
+                if (value != null)
+                    total.add(value);
+            });
+            return total.get();
+        });
+    }
+
+    /**
+     * @param context the context used to resolve references
+     * @return sum/count or null if no value can be iterated (hll, quantiles or bloom sketch)
+     */
+    Object avg(AggregatorContext context) {
+        int iterated = iterated();
+        return iterated == 0 ? null : arithmetic.divide(sum(context), (double) iterated);
+    }
+
+    /**
+     * Joins the values into a single pre-sized StringBuilder, iteration stops once the joined values
+     * exceed maxLength, they are then cut at maxLength and followed by "..."
+     *
+     * @param context   the context used to resolve references
+     * @param separator the separator between values
+     * @param prefix    the text before the values
+     * @param suffix    the text after the values
+     * @param maxLength the maximum length of the joined values (prefix and suffix excluded)
+     * @return the joined string
+     */
+    Object join(AggregatorContext context, String separator, String prefix, String suffix, int maxLength) {
+        String function = String.join("\0", "join", separator, prefix, suffix, String.valueOf(maxLength));
+        return memoise(function, context, () -> {
+            long estimate = (long) iterated() * (separator.length() + ESTIMATED_LENGTH);
+            StringBuilder joined = new StringBuilder(
+                    (int) Math.min(Math.min(estimate, maxLength) + prefix.length() + suffix.length() + TRUNCATED.length(),
+                            Integer.MAX_VALUE - 8));
+            joined.append(prefix);
+            long limit = (long) joined.length() + maxLength;
+            boolean[] first = {true};
+            forEachWhile(context, value -> {
+                if (!first[0])
+                    joined.append(separator);
+                first[0] = false;
+                joined.append(arithmetic.toString(value));
+                return joined.length() <= limit;
+            });
+            if (joined.length() > limit) {
+                joined.setLength((int) limit);
+                joined.append(TRUNCATED);
+            }
+            return joined.append(suffix).toString();
+        });
+    }
+
+    /**
+     * The weighted average in one pass over values and weights
+     *
+     * @param context the context used to resolve references
+     * @return sum(value * weight) / sum(weight) or 0.0d if the total weight is 0
+     */
+    Object wavg(AggregatorContext context) {
+        return memoise("wavg", context, () -> {
+            double[] totals = new double[2];
+            int[] index = new int[1];
+            forEach(context, value -> {
+                double weight = weights != null ? weights.doubleValue(index[0]) : 1.0d;
+                index[0]++;
+                if (value != null) {
+                    totals[0] += arithmetic.toDouble(value) * weight;
+                    totals[1] += weight;
+                }
+            });
+            return totals[1] != 0 ? totals[0] / totals[1] : 0.0d;
+        });
+    }
+
+    /**
+     * The distinct count estimated by the aggregator's HyperLogLog sketch or else by one built over the values
+     *
+     * @param context   the context used to resolve references
+     * @param precision the precision of the sketch built over the values
+     * @return the estimated number of distinct values
+     */
+    long countDistinctApprox(AggregatorContext context, int precision) {
+        if (sketch instanceof HyperLogLog)
+            return ((HyperLogLog) sketch).estimate();
+        if (sketch instanceof BloomFilter)
+            return ((BloomFilter) sketch).estimate();
+        return (Long) memoise("countDistinctApprox:" + precision, context, () -> {
+            HyperLogLog hyperLogLog = new HyperLogLog(precision);
+            forEach(context, hyperLogLog::add);
+            return hyperLogLog.estimate();
+        });
+    }
+
+    /**
+     * A quantile of the values: estimated by the aggregator's quantile sketch or else exact, interpolated
+     * between the closest ranks of the sorted values (memoised)
+     *
+     * @param context  the context used to resolve references
+     * @param fraction the quantile between 0 and 1
+     * @return the quantile or null if there is no value
+     */
+    Double quantile(AggregatorContext context, double fraction) {
+        if (sketch instanceof Quantiles)
+            return ((Quantiles) sketch).quantile(fraction);
+        double[] sorted = (double[]) memoise("sorted", context, () -> {
+            double[] array = new double[iterated()];
+            int[] index = new int[1];
+            forEach(context, value -> {
+                if (value != null)
+                    array[index[0]++] = arithmetic.toDouble(value);
+            });
+            double[] ret = Arrays.copyOf(array, index[0]);
+            Arrays.sort(ret);
+            return ret;
+        });
+        return Quantiles.interpolate(sorted, fraction);
+    }
+
+    /**
+     * The n greatest (or smallest) values compared as JEXL "&gt;" does, in one pass with a bounded heap
+     *
+     * @param context  the context used to resolve references
+     * @param n        the number of values
+     * @param greatest true for the greatest values first, false for the smallest first
+     * @return the values, unmodifiable
+     */
+    @SuppressWarnings("unchecked")
+    List<Object> top(AggregatorContext context, int n, boolean greatest) {
+        return (List<Object>) memoise((greatest ? "topN:" : "bottomN:") + n, context, () -> {
+            Comparator<Object> comparator = (a, b) ->
+                    arithmetic.lessThan(a, b) ? -1 : arithmetic.greaterThan(a, b) ? 1 : 0;
+            TopN top = new TopN(n, greatest ? comparator : comparator.reversed());
+            forEach(context, top::add);
+            return top.get();
+        });
+    }
+
+    /**
+     * The most frequent values estimated with k Space-Saving counters
+     *
+     * @param context the context used to resolve references
+     * @param k       the number of counters
+     * @return the values with their estimated count, most frequent first, unmodifiable
+     */
+    @SuppressWarnings("unchecked")
+    Map<Object, Long> heavyHitters(AggregatorContext context, int k) {
+        return (Map<Object, Long>) memoise("heavyHitters:" + k, context, () -> {
+            SpaceSaving counters = new SpaceSaving(k);
+            forEach(context, counters::add);
+            return counters.get();
+        });
+    }
+
+    /**
+     * Counts of the values per bucket, see {@link Histogram}
+     *
+     * @param context the context used to resolve references
+     * @param key     identifies the buckets
+     * @param buckets creates the empty histogram
+     * @return the count per lower bound, unmodifiable
+     */
+    @SuppressWarnings("unchecked")
+    Map<Object, Long> histogram(AggregatorContext context, String key, Supplier<Histogram> buckets) {
+        return (Map<Object, Long>) memoise("histogram:" + key, context, () -> {
+            Histogram histogram = buckets.get();
+            forEach(context, histogram::add);
+            return histogram.get();
+        });
+    }
+
+    Statistics statistics(AggregatorContext context) {
+        return (Statistics) memoise("statistics", context, () -> {
+            Statistics statistics = new Statistics(arithmetic);
+            forEach(context, statistics::add);
+            return statistics;
+        });
+    }
+
+    Object asArray(AggregatorContext context) {
+        if (values != null && values.isPrimitive()) {
+            Object[] array = (Object[]) Array.newInstance(values.getType(), values.size());
+            for (int i = 0; i < array.length; i++)
+                array[i] = values.get(i);
+            return array;
+        }
+        JexlArithmetic.ArrayBuilder builder = arithmetic.arrayBuilder(iterated());
+        forEach(context, builder::add);
+        return builder.create(false);
+    }
+
+    /**
+     * Membership test against an index of the values, the index of a lazy aggregator is rebuilt
+     * when the context's epoch changes
+     *
+     * @param context the context used to resolve references
+     * @param object  the object to search
+     * @return true if object was collected
+     */
+    boolean contains(AggregatorContext context, Object object) {
+        if (sketch instanceof Bitmap)
+            return ((Bitmap) sketch).contains(object);
+        if (sketch instanceof BloomFilter)
+            return ((BloomFilter) sketch).contains(object);
+        if (sketch != null)
+            return false;
+        if (values != null && values.isEncoded())
+            return values.containsEncoded(object);
+        return index(context).contains(object);
+    }
+
+    private Set<Object> index(AggregatorContext context) {
+        if (index == null || (store == null && indexEpoch != context.getEpoch())) {
+            Set<Object> built = new HashSet<>(Math.max(16, iterated() * 4 / 3 + 1));
+            forEach(context, built::add);
+            context.addFootprint(indexFootprint(built) - indexFootprint(index));
+            index = built;
+            indexEpoch = context.getEpoch();
+        }
+        return index;
+    }
+
+    /**
+     * The number of distinct values: exact from a bitmap or the membership index, estimated from a HyperLogLog sketch
+     *
+     * @param context the context used to resolve references
+     * @return the number of distinct values
+     */
+    long countDistinct(AggregatorContext context) {
+        if (sketch instanceof Bitmap)
+            return ((Bitmap) sketch).cardinality();
+        if (sketch instanceof HyperLogLog)
+            return ((HyperLogLog) sketch).estimate();
+        if (sketch instanceof BloomFilter)
+            return ((BloomFilter) sketch).estimate();
+        if (values != null && values.isEncoded())
+            return values.distinctSize();
+        return index(context).size();
+    }
+
+    Object asSet(AggregatorContext context) {
+        if (values != null && values.isEncoded()) {
+            JexlArithmetic.SetBuilder builder = arithmetic.setBuilder(values.distinctSize());
+            values.forEachDistinct(builder::add);
+            return builder.create();
+        }
+        JexlArithmetic.SetBuilder builder = arithmetic.setBuilder(iterated());
+        forEach(context, builder::add);
+        return builder.create();
+    }
+
+    int[] asIntArray(AggregatorContext context) {
+        int[] ret = values != null ? values.toIntArray() : null;
+        if (ret == null) {
+            int[] array = new int[iterated()];
+            int[] index = new int[1];
+            forEach(context, value -> array[index[0]++] = arithmetic.toInteger(value));
+            ret = array;
+        }
+        return ret;
+    }
+
+    long[] asLongArray(AggregatorContext context) {
+        long[] ret = values != null ? values.toLongArray() : null;
+        if (ret == null) {
+            long[] array = new long[iterated()];
+            int[] index = new int[1];
+            forEach(context, value -> array[index[0]++] = arithmetic.toLong(value));
+            ret = array;
+        }
+        return ret;
+    }
+
+    double[] asDoubleArray(AggregatorContext context) {
+        double[] ret = values != null ? values.toDoubleArray() : null;
+        if (ret == null) {
+            double[] array = new double[iterated()];
+            int[] index = new int[1];
+            forEach(context, value -> array[index[0]++] = arithmetic.toDouble(value));
+            ret = array;
+        }
+        return ret;
+    }
+
+    void clear() {
+        if (groups != null)
+            groups.values().forEach(Aggregator::close);
+        if (store != null) {
+            store.clear();
+            if (sum != null)
+                sum.clear();
+            else if (sketch == null)
+                sum = new Sum(arithmetic);
+        } else {
+            references.clear();
+        }
+        groups = null;
+        memo = null;
+        index = null;
+        weights = null;
+    }
+
+    /**
+     * Drops the memoised results and the membership index of a lazy aggregator and of its groups,
+     * the values it references may have changed
+     */
+    void invalidate() {
+        if (store == null) {
+            memo = null;
+            index = null;
+        }
+        if (groups != null)
+            groups.values().forEach(Aggregator::invalidate);
+    }
+
+    /**
+     * Clears the aggregator and releases the resources of its store and of its groups' stores
+     */
+    void close() {
+        clear();
+        if (store != null)
+            store.close();
+    }
+
+    /**
+     * @return the estimated bytes held by the aggregator, without its groups
+     */
+    long footprint() {
+        long ret = store != null ? store.footprint() : (long) REFERENCE_BYTES * references.size();
+        if (weights != null)
+            ret += weights.footprint();
+        return ret + indexFootprint(index);
+    }
+
+    private static long indexFootprint(Set<Object> index) {
+        return index != null ? (long) HeapStore.VALUE_BYTES * 2 * index.size() : 0;
+    }
+
+    /**
+     * @return the estimated bytes held by the aggregator and its groups
+     */
+    long totalFootprint() {
+        long ret = footprint();
+        if (groups != null) {
+            for (Aggregator group : groups.values())
+                ret += group.totalFootprint();
+        }
+        return ret;
+    }
+
+    /**
+     * @param all receives the aggregator and its groups
+     */
+    void addTo(List<Aggregator> all) {
+        all.add(this);
+        if (groups != null)
+            groups.values().forEach(group -> group.addTo(all));
+    }
+
+    /**
+     * Moves the values of the aggregator to a spill store (references are resolved now): the aggregator
+     * keeps collecting into the spill store. A running sum is kept but none is built, the sum of a lazy
+     * aggregator is computed from the spilled values when asked
+     *
+     * @param context the context used to resolve references
+     * @param spilled an empty spill store, closed if the aggregator is not spilled
+     * @return false if the aggregator keeps a sketch, is already off the heap or a value cannot be spilled
+     */
+    boolean spill(AggregatorContext context, SpillStore spilled) {
+        if (sketch != null || store instanceof SpillStore || store instanceof OffHeapStore) {
+            spilled.close();
+            return false;
+        }
+        try {
+            forEach(context, spilled::append);
+        } catch (IllegalArgumentException e) {
+            spilled.close();
+            return false;
+        }
+        if (store != null)
+            store.close();
+        store = spilled;
+        values = null;
+        references = null;
+        index = null;
+        memo = null;
+        return true;
+    }
+}
@@ -2,40 +2,80 @@ package com.github.jpingus;
 
 import com.github.jpingus.model.AggregatorConfiguration;
 import com.github.jpingus.model.Class;
+import com.github.jpingus.model.ContextStatistics;
 import com.github.jpingus.model.ProcessTrace;
 import org.apache.commons.jexl3.*;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.lang.reflect.Array;
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.github.jpingus.StringFunctions.isEmpty;
 
-public class AggregatorContext implements JexlContext.NamespaceResolver, JexlContext {
-    private static final int SIZE_MAX = 2000;
+public class AggregatorContext implements JexlContext.NamespaceResolver, JexlContext, AutoCloseable {
     private static final Log LOGGER = LogFactory.getLog(AggregatorContext.class);
     public static final String CONTEXT_VARIABLE = "$__context__";
+    private static final long MIN_SPILL_BYTES = 64 * 1024;
     private final Map<java.lang.Class, Analysed> analysedCache = new HashMap<>();
     private final JexlEngine jexl;
     private final Map<String, java.lang.Class> registeredNamespaces;
+    private final Map<String, Object> variables;
     private final JexlContext localContext;
     private final Map<String, Aggregator> aggregators;
+    private final Map<String, Integer> symbols;
+    private final Map<String, Set<Aggregator>> scopes;
+    private Aggregator[] slots;
     private final boolean debug;
-    private final int sizeMax = SIZE_MAX;
+    private final boolean eager;
+    private final boolean skipUnreadCollects;
+    private final Set<String> readNames;
+    private final Set<String> readPrefixes;
+    private boolean readAll;
+    private boolean[] read;
+    private final Map<String, Set<String>> collectedFields;
+    private final Set<String> classCollected;
+    private int epoch;
+    private final Map<String, BiFunction<JexlArithmetic, Dictionary, AggregatorStore>> stores;
+    private BiFunction<JexlArithmetic, Dictionary, AggregatorStore> defaultStore;
+    private final Map<String, com.github.jpingus.model.Aggregator> aggregatorTypes;
+    private final Dictionary dictionary;
+    private long memoryBudget;
+    private MemoryPolicy memoryPolicy;
+    private java.nio.file.Path spillDirectory;
+    private int spillSegment;
+    private long footprint;
     private List<AggregatorProcessing> processings;
     private ProcessTrace processTrace;
     private List<String> packageStarts;
     private ClassLoader classLoader = null;
 
-    private AggregatorContext(boolean debug) {
+    private AggregatorContext(boolean debug, boolean eager, boolean skipUnreadCollects) {
         this.jexl = new JexlBuilder().create();
-        this.localContext = new MapContext();
+        this.variables = new HashMap<>();
+        this.localContext = new MapContext(variables);
         this.localContext.set(CONTEXT_VARIABLE, this);
         this.aggregators = new HashMap<>();
+        this.symbols = new HashMap<>();
+        this.scopes = new HashMap<>();
+        this.slots = new Aggregator[16];
+        this.read = new boolean[16];
+        this.skipUnreadCollects = skipUnreadCollects;
+        this.readNames = new HashSet<>();
+        this.readPrefixes = new HashSet<>();
+        this.collectedFields = new HashMap<>();
+        this.classCollected = new HashSet<>();
+        this.stores = new HashMap<>();
+        this.aggregatorTypes = new LinkedHashMap<>();
+        this.dictionary = new Dictionary();
         this.registeredNamespaces = new HashMap<>();
         this.processTrace = new ProcessTrace();
         this.debug = debug;
+        this.eager = eager;
         this.packageStarts = null;
     }
 
@@ -72,6 +112,28 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
         return registeredNamespaces;
     }
 
+    Map<String, com.github.jpingus.model.Aggregator> getAggregatorTypes() {
+        return aggregatorTypes;
+    }
+
+    /**
+     * @param type the type of the aggregators of that name (of all aggregators without a type if the
+     *             name is empty) created from now on
+     * @throws IllegalArgumentException if the type is invalid
+     */
+    void addAggregatorType(com.github.jpingus.model.Aggregator type) {
+        ClassLoader loader = classLoader != null ? classLoader : getClass().getClassLoader();
+        setStore(type.getName(), AggregatorTypes.store(type, loader));
+        aggregatorTypes.put(type.getName(), type);
+    }
+
+    private void setStore(String aggregator, BiFunction<JexlArithmetic, Dictionary, AggregatorStore> store) {
+        if (isEmpty(aggregator))
+            defaultStore = store;
+        else
+            stores.put(aggregator, store);
+    }
+
     Map<java.lang.Class, Analysed> getAnalysedCache() {
         return analysedCache;
     }
@@ -120,12 +182,77 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
                 processTrace = processTrace.traceExecute(field, formula);
                 LOGGER.debug("Execute:" + expression);
             }
-            return evaluate(expression.toString());
+            Object ret = evaluate(expression.toString());
+            if (!eager)
+                invalidate(field);
+            return ret;
         } finally {
             processTrace = current;
         }
     }
 
+    /**
+     * Invalidates the results memoised by the aggregators an assigned field may feed: the aggregators it is
+     * collected to and the ones expressions of a class are collected to, all of them (new epoch) when one
+     * of these aggregator names is evaluated
+     *
+     * @param field the assigned field
+     */
+    private void invalidate(String field) {
+        Set<String> fed = collectedFields.get(field.substring(field.lastIndexOf('.') + 1));
+        if (fed == null && classCollected.isEmpty())
+            return;
+        if ((fed != null && fed.contains(null)) || classCollected.contains(null)) {
+            epoch++;
+            return;
+        }
+        if (fed != null)
+            fed.forEach(this::invalidateAggregator);
+        classCollected.forEach(this::invalidateAggregator);
+    }
+
+    private void invalidateAggregator(String aggregator) {
+        Aggregator a = aggregators.get(aggregator);
+        if (a == null)
+            return;
+        long before = memoryBudget > 0 ? a.totalFootprint() : 0;
+        a.invalidate();
+        if (memoryBudget > 0)
+            footprint += a.totalFootprint() - before;
+    }
+
+    /**
+     * Registers a collect of an analysed class, assigning its field in an execute may change the values
+     * referenced by the aggregator
+     *
+     * @param field      the collected field, null for a collect of the class
+     * @param aggregator the aggregator's name, null if it is evaluated
+     */
+    void addCollected(String field, String aggregator) {
+        if (field == null)
+            classCollected.add(aggregator);
+        else
+            collectedFields.computeIfAbsent(field, f -> new HashSet<>()).add(aggregator);
+    }
+
+    /**
+     * The aggregation results memoised by the aggregators are valid as long as the epoch does not change.
+     * It changes when a process starts or ends and when an execute of a context which is not eager assigns
+     * a field collected to an evaluated aggregator name (otherwise only the aggregators fed are invalidated)
+     *
+     * @return the current epoch
+     */
+    int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Invalidates the aggregation results memoised by the aggregators
+     */
+    void newEpoch() {
+        epoch++;
+    }
+
     /**
      * Evaluate the expression against the context, additionally to the JEXL syntax
      * you can use - sum - avg - count - join see methods with same name in this
@@ -143,6 +270,38 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
         }
     }
 
+    /**
+     * Evaluate a compiled expression against the context
+     *
+     * @param expression the compiled expression (can be null if it could not be compiled)
+     * @return evaluated expression or null
+     */
+    Object evaluate(JexlExpression expression) {
+        if (expression == null)
+            return null;
+        try {
+            return expression.evaluate(this);
+        } catch (JexlException e) {
+            error("Could not evaluate expression '" + expression.getSourceText() + "'", e);
+            return null;
+        }
+    }
+
+    /**
+     * Compiles an expression to be evaluated later against this context
+     *
+     * @param expression the expression to compile
+     * @return the compiled expression or null if it cannot be parsed
+     */
+    JexlExpression compile(String expression) {
+        try {
+            return jexl.createExpression(expression);
+        } catch (JexlException e) {
+            error("Could not compile expression '" + expression + "'", e);
+            return null;
+        }
+    }
+
     /**
      * Joins all objects that have been collected in an aggregator into a string
      * separated by separator
@@ -152,7 +311,40 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
      * @return a String with all aggregator's element joined by sperator or else an empty string if aggregator not found
      */
     public Object join(String separator, String aggregator) {
-        return aggregate(aggregator, "join", false, a -> a.join("+'" + separator + "'+"), "");
+        return join(separator, aggregator, "", "", Integer.MAX_VALUE);
+    }
+
+    /**
+     * Joins all objects that have been collected in an aggregator into a string
+     * separated by separator, between a prefix and a suffix
+     *
+     * @param separator  the String to use as separator
+     * @param aggregator the aggregator to join
+     * @param prefix     the String to start with
+     * @param suffix     the String to end with
+     * @return prefix, the aggregator's elements joined by separator and suffix
+     */
+    public Object join(String separator, String aggregator, String prefix, String suffix) {
+        return join(separator, aggregator, prefix, suffix, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Joins all objects that have been collected in an aggregator into a string
+     * separated by separator, between a prefix and a suffix. When the joined elements
+     * are longer than maxLength they are cut and followed by "..."
+     *
+     * @param separator  the String to use as separator
+     * @param aggregator the aggregator to join
+     * @param prefix     the String to start with
+     * @param suffix     the String to end with
+     * @param maxLength  the maximum length of the joined elements (prefix and suffix excluded)
+     * @return prefix, the aggregator's elements joined by separator and suffix
+     * @throws IllegalArgumentException if maxLength is negative
+     */
+    public Object join(String separator, String aggregator, String prefix, String suffix, int maxLength) {
+        if (maxLength < 0)
+            throw new IllegalArgumentException("join length " + maxLength + " must not be negative");
+        return aggregate(aggregator, "join", a -> a.join(this, separator, prefix, suffix, maxLength), prefix + suffix);
     }
 
     /**
@@ -162,8 +354,9 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
      * @return the number of elements in aggregator or else 0
      */
     public Integer count(String aggregator) {
-        if (aggregators.containsKey(aggregator)) {
-            int ret = aggregators.get(aggregator).count();
+        Aggregator a = aggregators.get(aggregator);
+        if (a != null) {
+            int ret = a.count();
             if (debug) {
                 LOGGER.debug("count of " + aggregator + "=" + ret);
             }
@@ -182,7 +375,7 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
      * @return true if object exists in aggregator or else false
      */
     public Boolean contains(String aggregator, Object object) {
-        return asSet(aggregator).contains(object);
+        return (Boolean) aggregate(aggregator, "contains", a -> a.contains(this, object), false);
     }
 
     /**
@@ -194,7 +387,7 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
      * @return the total of all elements in element's type if not found or no elements
      */
     public <T> T sum(String aggregator, T orElse) {
-        return (T) aggregate(aggregator, "sum", true, a -> a.join("+"), orElse);
+        return (T) aggregate(aggregator, "sum", a -> a.sum(this), orElse);
     }
 
     /**
@@ -205,22 +398,286 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
      * @return the sum or null if not found or empty
      */
     public Object sum(String aggregator) {
-        return aggregate(aggregator, "sum", true, a -> a.join("+"), null);
+        return aggregate(aggregator, "sum", a -> a.sum(this), null);
     }
 
     /**
      * does sum/count for an aggregator, result is floating point (usually double)
      *
      * @param aggregator the aggregator
-     * @return the average or 0.0d if not found or empty
+     * @return the average, 0.0d if not found or empty, null if the aggregator keeps a sketch without values
      */
     public Object avg(final String aggregator) {
-        int count = count(aggregator);
-        if (count > 0) {
-            sum(aggregator);
-            return evaluate("$sum/" + count(aggregator) + ".0");
-        }
-        return 0.0d;
+        return aggregate(aggregator, "avg", a -> a.avg(this), 0.0d);
+    }
+
+    /**
+     * The average of the objects collected in an aggregator weighted by the weight of their collect
+     * (see weight of @Collect, elements collected without weight weigh 1)
+     *
+     * @param aggregator the aggregator
+     * @return the weighted average or 0.0d if not found, empty or of null total weight
+     */
+    public Object wavg(String aggregator) {
+        return aggregate(aggregator, "wavg", a -> a.wavg(this), 0.0d);
+    }
+
+    /**
+     * Counts the distinct objects collected in an aggregator, an aggregator configured with
+     * {@link Builder#bitmap(String)} answers from its bitmap, one configured with
+     * {@link Builder#countDistinctApprox(String, int)} answers an estimate
+     *
+     * @param aggregator the aggregator
+     * @return the distinct count or 0 if not found or empty
+     */
+    public Long countDistinct(String aggregator) {
+        return (Long) aggregate(aggregator, "countDistinct", a -> a.countDistinct(this), 0L);
+    }
+
+    /**
+     * Estimates the number of distinct objects collected in an aggregator with a HyperLogLog sketch
+     * (of precision 14, about 0.8% of error). An aggregator configured with
+     * {@link Builder#countDistinctApprox(String, int)} answers from its sketch.
+     *
+     * @param aggregator the aggregator
+     * @return the estimated distinct count or 0 if not found or empty
+     */
+    public Long countDistinctApprox(String aggregator) {
+        return countDistinctApprox(aggregator, HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Estimates the number of distinct objects collected in an aggregator with a HyperLogLog sketch
+     *
+     * @param aggregator the aggregator
+     * @param precision  the sketch uses 2^precision bytes (4 to 18), the error is about 1.04/sqrt(2^precision)
+     * @return the estimated distinct count or 0 if not found or empty
+     */
+    public Long countDistinctApprox(String aggregator, int precision) {
+        return (Long) aggregate(aggregator, "countDistinctApprox", a -> a.countDistinctApprox(this, precision), 0L);
+    }
+
+    /**
+     * The median of the objects collected in an aggregator, see {@link #percentile(String, Number)}
+     *
+     * @param aggregator the aggregator
+     * @return the median or null if not found or empty
+     */
+    public Double median(String aggregator) {
+        return percentile(aggregator, 50);
+    }
+
+    /**
+     * A percentile of the objects collected in an aggregator. It is exact (interpolated between the closest
+     * ranks) unless the aggregator is configured with {@link Builder#quantiles(String, int)}, its quantile
+     * sketch then gives an estimate in bounded memory.
+     *
+     * @param aggregator the aggregator
+     * @param percent    the percentile between 0 and 100 (95 for the p95)
+     * @return the percentile or null if not found or empty
+     * @throws IllegalArgumentException if percent is not between 0 and 100
+     */
+    public Double percentile(String aggregator, Number percent) {
+        double fraction = Quantiles.fraction(percent);
+        return (Double) aggregate(aggregator, "percentile", a -> a.quantile(this, fraction), null);
+    }
+
+    /**
+     * The n greatest objects collected in an aggregator (compared as JEXL "&gt;" does), found
+     * in one pass keeping at most n objects
+     *
+     * @param aggregator the aggregator
+     * @param n          the number of objects
+     * @return the greatest objects, greatest first (may be empty)
+     * @throws IllegalArgumentException if n is lower than 1
+     */
+    public List<Object> topN(String aggregator, int n) {
+        TopN.checkN(n);
+        return top(aggregator, "topN", n, true);
+    }
+
+    /**
+     * The n smallest objects collected in an aggregator (compared as JEXL "&lt;" does), found
+     * in one pass keeping at most n objects
+     *
+     * @param aggregator the aggregator
+     * @param n          the number of objects
+     * @return the smallest objects, smallest first (may be empty)
+     * @throws IllegalArgumentException if n is lower than 1
+     */
+    public List<Object> bottomN(String aggregator, int n) {
+        TopN.checkN(n);
+        return top(aggregator, "bottomN", n, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> top(String aggregator, String name, int n, boolean greatest) {
+        return (List<Object>) aggregate(aggregator, name, a -> a.top(this, n, greatest), Collections.emptyList());
+    }
+
+    /**
+     * The most frequent objects collected in an aggregator, estimated with k Space-Saving counters:
+     * any object collected more than count/k times is found, its count may be overestimated
+     *
+     * @param aggregator the aggregator
+     * @param k          the number of counters
+     * @return the objects with their estimated count, most frequent first (may be empty)
+     * @throws IllegalArgumentException if k is lower than 1
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Object, Long> heavyHitters(String aggregator, int k) {
+        TopN.checkN(k);
+        return (Map<Object, Long>) aggregate(aggregator, "heavyHitters", a -> a.heavyHitters(this, k), Collections.emptyMap());
+    }
+
+    /**
+     * The number of objects collected in an aggregator per bucket, counted in one pass: a bucket starts at
+     * a bound and ends at the next one, the last one is unbounded. For example
+     * <code>histogram('amounts', [0, 100, 1000])</code> counts amounts in [0,100), [100,1000) and from 1000.
+     *
+     * @param aggregator the aggregator
+     * @param bounds     the lower bounds of the buckets in ascending order (an array or a list of numbers)
+     * @return the count per lower bound in ascending order (including empty buckets), objects below the first
+     * bound are counted under negative infinity; empty if the aggregator is not found
+     * @throws IllegalArgumentException if bounds are empty or not in ascending order
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Object, Long> histogram(String aggregator, Object bounds) {
+        Histogram.bounded(jexl.getArithmetic(), bounds);
+        return (Map<Object, Long>) aggregate(aggregator, "histogram", a -> a.histogram(this, Histogram.key(bounds),
+                () -> Histogram.bounded(jexl.getArithmetic(), bounds)), Collections.emptyMap());
+    }
+
+    /**
+     * The number of objects collected in an aggregator per logarithmic bucket [base^i, base^(i+1)), counted
+     * in one pass. For example <code>logHistogram('amounts', 10)</code> counts amounts in [1,10), [10,100)...
+     *
+     * @param aggregator the aggregator
+     * @param base       the ratio between the bounds of a bucket, greater than 1
+     * @return the count per lower bound in ascending order from the smallest to the greatest bucket used,
+     * objects not positive are counted under negative infinity; empty if the aggregator is not found
+     * @throws IllegalArgumentException if base is not greater than 1
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Object, Long> logHistogram(String aggregator, Number base) {
+        Histogram.logarithmic(jexl.getArithmetic(), base.doubleValue());
+        return (Map<Object, Long>) aggregate(aggregator, "logHistogram", a -> a.histogram(this, "log:" + base,
+                () -> Histogram.logarithmic(jexl.getArithmetic(), base.doubleValue())), Collections.emptyMap());
+    }
+
+    /**
+     * The smallest object collected in an aggregator (compared as JEXL "&lt;" does)
+     *
+     * @param aggregator the aggregator
+     * @return the minimum or null if not found or empty
+     */
+    public Object min(String aggregator) {
+        return aggregate(aggregator, "min", a -> a.statistics(this).getMin(), null);
+    }
+
+    /**
+     * The largest object collected in an aggregator (compared as JEXL "&gt;" does)
+     *
+     * @param aggregator the aggregator
+     * @return the maximum or null if not found or empty
+     */
+    public Object max(String aggregator) {
+        return aggregate(aggregator, "max", a -> a.statistics(this).getMax(), null);
+    }
+
+    /**
+     * The population variance of the objects collected in an aggregator, computed in one pass
+     *
+     * @param aggregator the aggregator
+     * @return the variance or 0.0d if not found or empty
+     */
+    public Object variance(String aggregator) {
+        return aggregate(aggregator, "variance", a -> a.statistics(this).getVariance(), 0.0d);
+    }
+
+    /**
+     * The population standard deviation of the objects collected in an aggregator, computed in one pass
+     *
+     * @param aggregator the aggregator
+     * @return the standard deviation or 0.0d if not found or empty
+     */
+    public Object stddev(String aggregator) {
+        return aggregate(aggregator, "stddev", a -> a.statistics(this).getStddev(), 0.0d);
+    }
+
+    /**
+     * Sum the objects collected in one group of an aggregator (see groupBy of @Collect)
+     *
+     * @param aggregator the aggregator
+     * @param key        the group's key
+     * @return the sum or null if not found or empty
+     */
+    public Object sumBy(String aggregator, Object key) {
+        return aggregateGroup(aggregator, key, "sumBy", g -> g.sum(this), null);
+    }
+
+    /**
+     * Sum the objects collected in each group of an aggregator (see groupBy of @Collect)
+     *
+     * @param aggregator the aggregator
+     * @return the sum per key (may be empty)
+     */
+    public Map<Object, Object> sumBy(String aggregator) {
+        return aggregateGroups(aggregator, "sumBy", g -> g.sum(this));
+    }
+
+    /**
+     * Count the objects collected in one group of an aggregator (see groupBy of @Collect)
+     *
+     * @param aggregator the aggregator
+     * @param key        the group's key
+     * @return the number of elements in the group or else 0
+     */
+    public Integer countBy(String aggregator, Object key) {
+        return (Integer) aggregateGroup(aggregator, key, "countBy", Aggregator::count, 0);
+    }
+
+    /**
+     * Count the objects collected in each group of an aggregator (see groupBy of @Collect)
+     *
+     * @param aggregator the aggregator
+     * @return the count per key (may be empty)
+     */
+    public Map<Object, Object> countBy(String aggregator) {
+        return aggregateGroups(aggregator, "countBy", Aggregator::count);
+    }
+
+    /**
+     * does sum/count for one group of an aggregator (see groupBy of @Collect)
+     *
+     * @param aggregator the aggregator
+     * @param key        the group's key
+     * @return the average or 0.0d if not found or empty
+     */
+    public Object avgBy(String aggregator, Object key) {
+        return aggregateGroup(aggregator, key, "avgBy", g -> g.avg(this), 0.0d);
+    }
+
+    /**
+     * does sum/count for each group of an aggregator (see groupBy of @Collect)
+     *
+     * @param aggregator the aggregator
+     * @return the average per key (may be empty)
+     */
+    public Map<Object, Object> avgBy(String aggregator) {
+        return aggregateGroups(aggregator, "avgBy", g -> g.avg(this));
+    }
+
+    private Object aggregateGroup(String aggregator, Object key, String name, Function<Aggregator, Object> function, Object orElse) {
+        return aggregate(aggregator, name, a -> {
+            Aggregator group = a.getGroup(key);
+            return group != null ? function.apply(group) : orElse;
+        }, orElse);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> aggregateGroups(String aggregator, String name, Function<Aggregator, Object> function) {
+        return (Map<Object, Object>) aggregate(aggregator, name, a -> a.groups(function), new LinkedHashMap<>());
     }
 
     /**
@@ -230,24 +687,55 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
      * @return an array (may be empty)
      */
     public <T> T[] asArray(String aggregator) {
-        Object ret = aggregate(aggregator, "asArray", false, a -> "[" + a.join(",") + "]", new Object[]{});
-        if (ret instanceof int[]) {
-            Integer[] ret2 = new Integer[((int[]) ret).length];
-            int idx = 0;
-            for (int i : ((int[]) ret))
-                ret2[idx] = ((int[]) ret)[idx++];
-            return (T[]) ret2;
-        }
-        if (ret instanceof double[]) {
-            Double[] ret2 = new Double[((double[]) ret).length];
-            int idx = 0;
-            for (double i : ((double[]) ret))
-                ret2[idx] = ((double[]) ret)[idx++];
-            return (T[]) ret2;
+        Object ret = aggregate(aggregator, "asArray", a -> a.asArray(this), new Object[]{});
+        if (ret.getClass().getComponentType().isPrimitive()) {
+            int length = Array.getLength(ret);
+            Object[] boxed = new Object[length];
+            for (int i = 0; i < length; i++)
+                boxed[i] = Array.get(ret, i);
+            ret = Arrays.copyOf(boxed, length, boxed.length > 0 ? arrayClassOf(boxed[0]) : Object[].class);
         }
         return (T[]) ret;
     }
 
+    /**
+     * return aggregated values as int array, values collected eagerly from primitive fields
+     * are copied without boxing
+     *
+     * @param aggregator the aggregator
+     * @return an array (may be empty)
+     */
+    public int[] asIntArray(String aggregator) {
+        return (int[]) aggregate(aggregator, "asIntArray", a -> a.asIntArray(this), new int[]{});
+    }
+
+    /**
+     * return aggregated values as long array, values collected eagerly from primitive fields
+     * are copied without boxing
+     *
+     * @param aggregator the aggregator
+     * @return an array (may be empty)
+     */
+    public long[] asLongArray(String aggregator) {
+        return (long[]) aggregate(aggregator, "asLongArray", a -> a.asLongArray(this), new long[]{});
+    }
+
+    /**
+     * return aggregated values as double array, values collected eagerly from primitive fields
+     * are copied without boxing
+     *
+     * @param aggregator the aggregator
+     * @return an array (may be empty)
+     */
+    public double[] asDoubleArray(String aggregator) {
+        return (double[]) aggregate(aggregator, "asDoubleArray", a -> a.asDoubleArray(this), new double[]{});
+    }
+
+    @SuppressWarnings("unchecked")
+    private static java.lang.Class<? extends Object[]> arrayClassOf(Object element) {
+        return (java.lang.Class<? extends Object[]>) Array.newInstance(element.getClass(), 0).getClass();
+    }
+
     /**
      * return aggregated values as Set
      *
@@ -256,7 +744,7 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
      */
     public <T> Set<T> asSet(String aggregator) {
         @SuppressWarnings("unchecked")
-        Set<T> ret = (Set<T>) aggregate(aggregator, "asSet", false, a -> "{" + a.join(",") + "}", new HashSet<>());
+        Set<T> ret = (Set<T>) aggregate(aggregator, "asSet", a -> a.asSet(this), new HashSet<>());
         return ret;
     }
 
@@ -269,52 +757,262 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
         return Collections.unmodifiableSet(aggregators.keySet());
     }
 
-    protected Object aggregate(String aggregator, String name, boolean canSplit,
-                               AggregatorJEXLBuilder expressionBuilder, Object orElse) {
-        Object ret = null;
-        if (aggregators.containsKey(aggregator)) {
-            Aggregator a = aggregators.get(aggregator);
-            if (a.formulas.size() == 0)
-                return orElse;
-            if (canSplit && a.count() > sizeMax) {
-                boolean first = true;
-                for (Aggregator b : a.split(sizeMax)) {
-                    String expression = "$" + name + (first ? "=" : "+=") + expressionBuilder.buildExpression(b);
-                    first = false;
-                    ret = evaluate(expression);
-                }
-            } else {
-                String expression = "$" + name + "=" + expressionBuilder.buildExpression(a);
-                ret = evaluate(expression);
-            }
-            if (debug) {
-                String message = name + " of '" + aggregator + "' = " + ret + (ret != null ? ("[" + ret.getClass().getSimpleName() + "]") : "");
-                processTrace.traceDebug(message);
-                LOGGER.debug(message);
-            }
-            return ret;
-        } else {
+    /**
+     * Aggregates the elements of an aggregator, collected references are resolved while iterating
+     *
+     * @param aggregator the aggregator's name
+     * @param name       the name of the aggregation (for debugging)
+     * @param function   the aggregation applied on the aggregator
+     * @param orElse     the default value in case of missing or empty aggregator
+     * @return the aggregated value or else orElse
+     */
+    protected Object aggregate(String aggregator, String name, Function<Aggregator, Object> function, Object orElse) {
+        Aggregator a = aggregators.get(aggregator);
+        if (a == null) {
             warning("Could not find aggregator with name '" + aggregator + "' use value:'" + orElse + "'");
+            return orElse;
+        }
+        if (a.isEmpty())
+            return orElse;
+        Object ret = function.apply(a);
+        if (debug) {
+            String message = name + " of '" + aggregator + "' = " + ret + (ret != null ? ("[" + ret.getClass().getSimpleName() + "]") : "");
+            processTrace.traceDebug(message);
+            LOGGER.debug(message);
         }
-        return orElse;
+        return ret;
+    }
 
+    /**
+     * Used by processor to collect object references, in an eager context the value is collected
+     * instead of the reference
+     *
+     * @param aggregator      aggregator's name to collect
+     * @param objectReference the path of the element to collect (for debugging)
+     * @param reference       the handle on the element to collect
+     * @param value           the value of the element when collected
+     * @param key             the group of the element or null if not grouped
+     * @param weight          the weight of the element or null if not weighted
+     */
+    protected void collect(String aggregator, String objectReference, Reference reference, Object value, Object key,
+                           Object weight) {
+        collect(aggregatorFor(aggregator), aggregator, objectReference, reference, value, key, weight);
     }
 
     /**
-     * Used by processor to collect object references
+     * Used by processor to collect object references into an aggregator interned at analysis time
      *
+     * @param slot            the slot of the aggregator
      * @param aggregator      aggregator's name to collect
-     * @param objectReference the reference to the element to collect
+     * @param objectReference the path of the element to collect (for debugging)
+     * @param reference       the handle on the element to collect
+     * @param value           the value of the element when collected
+     * @param key             the group of the element or null if not grouped
+     * @param weight          the weight of the element or null if not weighted
      */
-    protected void collect(String aggregator, String objectReference) {
-        if (!aggregators.containsKey(aggregator))
-            aggregators.put(aggregator, new Aggregator());
-        aggregators.get(aggregator).append(objectReference);
+    void collect(int slot, String aggregator, String objectReference, Reference reference, Object value, Object key,
+                 Object weight) {
+        Aggregator a = slots[slot];
+        if (a == null) {
+            a = aggregatorFor(aggregator);
+            slots[slot] = a;
+        }
+        collect(a, aggregator, objectReference, reference, value, key, weight);
+    }
+
+    private void collect(Aggregator a, String aggregator, String objectReference, Reference reference, Object value,
+                         Object key, Object weight) {
+        try {
+            append(a, reference, value, weight);
+            if (key != null)
+                append(a.group(key), reference, value, weight);
+        } catch (IllegalArgumentException e) {
+            error("Could not collect '" + objectReference + "' to aggregator '" + aggregator + "'", e);
+            return;
+        }
+        if (memoryBudget > 0 && footprint > memoryBudget)
+            overBudget();
         if (debug) {
             processTrace.traceCollect(aggregator, objectReference);
         }
     }
 
+    private void append(Aggregator a, Reference reference, Object value, Object weight) {
+        if (memoryBudget == 0) {
+            a.append(reference, value, weight);
+            return;
+        }
+        long before = a.footprint() + dictionary.footprint();
+        try {
+            a.append(reference, value, weight);
+        } finally {
+            footprint += a.footprint() + dictionary.footprint() - before;
+        }
+    }
+
+    /**
+     * Applies the memory policy: spills the largest aggregators until the footprint is back under three
+     * quarters of the budget, fails if the budget is still exceeded. The candidates are kept in a heap,
+     * only the aggregators actually spilled are taken out of it.
+     */
+    private void overBudget() {
+        if (memoryPolicy == MemoryPolicy.SPILL) {
+            List<Aggregator> all = new ArrayList<>();
+            aggregators.values().forEach(a -> a.addTo(all));
+            Map<Aggregator, Long> footprints = new IdentityHashMap<>();
+            for (Aggregator a : all) {
+                long bytes = a.footprint();
+                if (bytes >= MIN_SPILL_BYTES)
+                    footprints.put(a, bytes);
+            }
+            PriorityQueue<Aggregator> candidates = new PriorityQueue<>(
+                    Math.max(1, footprints.size()), (a, b) -> Long.compare(footprints.get(b), footprints.get(a)));
+            candidates.addAll(footprints.keySet());
+            while (footprint > memoryBudget / 4 * 3 && !candidates.isEmpty()) {
+                Aggregator a = candidates.poll();
+                if (a.spill(this, new SpillStore(0, spillDirectory, spillSegment))) {
+                    footprint += a.footprint() - footprints.get(a);
+                    warning("Aggregator '" + a.getName() + "' spilled to disk, context footprint " + footprint +
+                            " bytes for a budget of " + memoryBudget);
+                }
+            }
+        }
+        if (footprint > memoryBudget)
+            throw new MemoryBudgetExceededException(memoryBudget, footprint);
+    }
+
+    /**
+     * Accounts for bytes allocated or released by an aggregator outside of a collect (membership index...)
+     *
+     * @param bytes the bytes allocated, negative if released
+     */
+    void addFootprint(long bytes) {
+        if (memoryBudget > 0)
+            footprint += bytes;
+    }
+
+    /**
+     * @return the estimated bytes held by the aggregators, maintained when a memory budget is set
+     */
+    long getFootprint() {
+        return memoryBudget > 0 ? footprint : computeFootprint();
+    }
+
+    private long computeFootprint() {
+        long ret = dictionary.footprint();
+        for (Aggregator a : aggregators.values())
+            ret += a.totalFootprint();
+        return ret;
+    }
+
+    private BiFunction<JexlArithmetic, Dictionary, AggregatorStore> storeFor(String aggregator) {
+        BiFunction<JexlArithmetic, Dictionary, AggregatorStore> store = stores.get(aggregator);
+        if (store == null)
+            store = defaultStore;
+        if (store == null && eager)
+            store = (arithmetic, d) -> new ColumnStore(d);
+        return store;
+    }
+
+    private Aggregator aggregatorFor(String aggregator) {
+        Aggregator a = aggregators.get(aggregator);
+        if (a == null) {
+            a = new Aggregator(aggregator, jexl.getArithmetic(), storeFor(aggregator), dictionary);
+            aggregators.put(aggregator, a);
+            if (aggregator != null) {
+                for (int dot = aggregator.indexOf('.'); dot > 0; dot = aggregator.indexOf('.', dot + 1)) {
+                    scopes.computeIfAbsent(aggregator.substring(0, dot), scope -> new HashSet<>()).add(a);
+                }
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Closes an aggregator and removes it from the context (name, slot and scopes)
+     *
+     * @param aggregator the name of the aggregator to release
+     */
+    private void release(String aggregator) {
+        Aggregator a = aggregators.remove(aggregator);
+        if (a == null)
+            return;
+        if (memoryBudget > 0)
+            footprint -= a.totalFootprint();
+        a.close();
+        Integer slot = symbols.get(aggregator);
+        if (slot != null)
+            slots[slot] = null;
+        if (aggregator == null)
+            return;
+        for (int dot = aggregator.indexOf('.'); dot > 0; dot = aggregator.indexOf('.', dot + 1)) {
+            String scope = aggregator.substring(0, dot);
+            Set<Aggregator> scoped = scopes.get(scope);
+            if (scoped != null) {
+                scoped.remove(a);
+                if (scoped.isEmpty())
+                    scopes.remove(scope);
+            }
+        }
+    }
+
+    /**
+     * Interns a static aggregator name in the symbol table of this context
+     *
+     * @param aggregator the aggregator's name
+     * @return the slot of the aggregator
+     */
+    int intern(String aggregator) {
+        Integer slot = symbols.get(aggregator);
+        if (slot == null) {
+            slot = symbols.size();
+            symbols.put(aggregator, slot);
+            if (slot >= slots.length) {
+                slots = Arrays.copyOf(slots, slots.length * 2);
+                read = Arrays.copyOf(read, slots.length);
+            }
+            read[slot] = isRead(aggregator);
+        }
+        return slot;
+    }
+
+    /**
+     * Registers aggregators read by the formulas of an analysed class
+     *
+     * @param names    the aggregator names read
+     * @param prefixes the prefixes of aggregator names read
+     * @param known    false if the formulas read aggregators that cannot be known statically
+     */
+    void addReads(Set<String> names, Set<String> prefixes, boolean known) {
+        if (!skipUnreadCollects || readAll)
+            return;
+        readAll = !known;
+        if (readNames.addAll(names) | readPrefixes.addAll(prefixes)) {
+            symbols.forEach((aggregator, slot) -> read[slot] = isRead(aggregator));
+        }
+    }
+
+    private boolean isRead(String aggregator) {
+        if (readNames.contains(aggregator))
+            return true;
+        for (String prefix : readPrefixes) {
+            if (aggregator.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * A collect into an interned aggregator that no known formula reads can be skipped when the
+     * context is built with skipUnreadCollects
+     *
+     * @param collect the collect
+     * @return true if the collect can be skipped
+     */
+    boolean isUnread(CompiledCollect collect) {
+        return skipUnreadCollects && !readAll && collect.getSlot() != CompiledCollect.DYNAMIC && !read[collect.getSlot()];
+    }
+
     @Override
     public Object resolveNamespace(String s) {
         Object ret = registeredNamespaces.get(s);
@@ -337,16 +1035,56 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
     }
 
     /**
-     * removes all elements from context starting with prefix
+     * Merges the aggregators of another context into this one, e.g. to consolidate contexts filled
+     * in parallel. Sketches of the same kind are merged, other elements are read from the other context
+     * and appended as values.
+     *
+     * @param other the context to merge
+     */
+    public void merge(AggregatorContext other) {
+        other.aggregators.forEach((name, a) -> {
+            Aggregator merged = aggregatorFor(name);
+            long before = memoryBudget > 0 ? merged.totalFootprint() + dictionary.footprint() : 0;
+            try {
+                merged.merge(a, other);
+            } catch (IllegalArgumentException e) {
+                error("Could not merge aggregator '" + name + "'", e);
+            } finally {
+                if (memoryBudget > 0)
+                    footprint += merged.totalFootprint() + dictionary.footprint() - before;
+            }
+        });
+        if (memoryBudget > 0 && footprint > memoryBudget)
+            overBudget();
+    }
+
+    /**
+     * removes all aggregators from context starting with prefix followed by ".", only the
+     * aggregators of that scope are visited
      *
      * @param prefix the prefix of all aggregators to clean
      */
     public void cleanContext(String prefix) {
-        for (Map.Entry<String, Aggregator> entry : aggregators.entrySet()) {
-            if (entry.getKey().startsWith(prefix + ".")) {
-                entry.getValue().clear();
-            }
-        }
+        Set<Aggregator> scoped = scopes.get(prefix);
+        if (scoped == null)
+            return;
+        List<String> names = new ArrayList<>(scoped.size());
+        for (Aggregator a : scoped)
+            names.add(a.getName());
+        names.forEach(this::release);
+    }
+
+    /**
+     * Releases all the aggregators of the context, the resources of their stores (off-heap slabs...) and the
+     * dictionary, the context can still be used afterwards as an empty context
+     */
+    @Override
+    public void close() {
+        for (String aggregator : new ArrayList<>(aggregators.keySet()))
+            release(aggregator);
+        if (memoryBudget > 0)
+            footprint -= dictionary.footprint();
+        dictionary.clear();
     }
 
     public void addVariable(String variable, Object object) {
@@ -366,10 +1104,18 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
         return debug;
     }
 
+    /**
+     * @return true if values are collected when found instead of being resolved at aggregation time
+     */
+    public boolean isEager() {
+        return eager;
+    }
+
     public void analyse(java.lang.Class clazz, Analysed analysed) {
         analysed.setClassType(Analysed.CLASS_TYPE.PROCESSABLE);
         analysed.addOtherFields(clazz);
         analysed.prune();
+        analysed.compile(this);
         analysedCache.put(clazz, analysed);
     }
 
@@ -381,9 +1127,30 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
         this.packageStarts = packageStarts;
     }
 
+    /**
+     * @return the number of entries collected by the aggregators of the context (groups excluded)
+     * @see #getStatistics()
+     */
     public int size() {
+        long entries = 0;
+        for (Aggregator a : aggregators.values())
+            entries += a.count();
+        return (int) Math.min(entries, Integer.MAX_VALUE);
+    }
 
-        return 0;
+    /**
+     * @return a snapshot of the number of aggregators and entries, of the estimated bytes retained by each
+     * aggregator, of the number of variables and of analysed classes
+     */
+    public ContextStatistics getStatistics() {
+        long entries = 0;
+        Map<String, Long> footprints = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        for (Aggregator a : aggregators.values()) {
+            entries += a.count();
+            footprints.put(a.getName(), a.totalFootprint());
+        }
+        return new ContextStatistics(aggregators.size(), entries, footprints, dictionary.footprint(),
+                variables.size() - (variables.containsKey(CONTEXT_VARIABLE) ? 1 : 0), analysedCache.size());
     }
 
     void error(String message) {
@@ -415,6 +1182,7 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
     }
 
     public void cacheAndValidate(java.lang.Class objectClass, Analysed analysed) {
+        analysed.compile(this);
         if (analysed.getExecutes() != null && analysed.getCollects() != null) {
             for (String field : analysed.getExecutes().keySet()) {
                 if (analysed.getCollects().containsKey(field)) {
@@ -489,53 +1257,18 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
             );
     }
 
-    public interface AggregatorJEXLBuilder {
-        String buildExpression(Aggregator a);
-    }
-
-    /**
-     * Inner structure of the aggregator, subject to change...
-     */
-    private static class Aggregator {
-        List<String> formulas;
-
-        private Aggregator() {
-            this.formulas = new ArrayList<>();
-        }
-
-        public List<Aggregator> split(int size) {
-            List<Aggregator> ret = new ArrayList<>();
-            for (int start = 0; start < formulas.size(); start += size) {
-                int end = Math.min(start + size, formulas.size());
-                Aggregator b = new Aggregator();
-                b.formulas = formulas.subList(start, end);
-                ret.add(b);
-            }
-            return ret;
-        }
-
-        private void append(String formula) {
-            this.formulas.add(formula);
-        }
-
-        private int count() {
-            return formulas.size();
-        }
-
-        private String join(String s) {
-            return String.join(s, formulas);
-        }
-
-        public void clear() {
-            formulas.clear();
-
-        }
-    }
-
     public static class Builder {
         boolean debug;
+        boolean eager;
+        boolean skipUnreadCollects;
+        final Map<String, com.github.jpingus.model.Aggregator> aggregatorTypes = new LinkedHashMap<>();
+        final Map<String, Supplier<AggregatorStore>> stores = new LinkedHashMap<>();
         ClassLoader classLoader;
         AggregatorConfiguration config;
+        long memoryBudget;
+        MemoryPolicy memoryPolicy;
+        java.nio.file.Path spillDirectory;
+        int spillSegment;
 
         private Builder() {
         }
@@ -576,6 +1309,16 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
                 });
         }
 
+        private static void analyseAggregators(AggregatorContext context, AggregatorConfiguration config) {
+            config.getAggregatorList().forEach(type -> {
+                try {
+                    context.addAggregatorType(type);
+                } catch (IllegalArgumentException e) {
+                    context.error("Cannot configure aggregator '" + type.getName() + "'", e);
+                }
+            });
+        }
+
         private static void analysePackages(AggregatorContext context, List<String> packagesStart) {
             if (packagesStart != null)
                 context.setPackageStarts(packagesStart);
@@ -610,11 +1353,11 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
             clazzConfig.getCollectList()
                 .stream()
                 .filter(collect -> !isEmpty(collect.getField()))
-                .forEach(c -> analysed.addCollectField(c.getField(), c.getTo(), c.getWhen()));
+                .forEach(c -> analysed.addCollectField(c.getField(), c.getTo(), c.getWhen(), c.getGroupBy(), c.getWeight()));
             clazzConfig.getCollectList()
                 .stream()
                 .filter(collect -> !isEmpty(collect.getWhat()))
-                .forEach(c -> analysed.addCollectClass(c.getWhat(), c.getTo(), c.getWhen()));
+                .forEach(c -> analysed.addCollectClass(c.getWhat(), c.getTo(), c.getWhen(), c.getGroupBy(), c.getWeight()));
             clazzConfig.getVariableList()
                 .forEach(variable -> analysed.addVariable(variable.getField(), variable.getVariable()));
         }
@@ -641,6 +1384,203 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
             return this;
         }
 
+        /**
+         * setup the eager parameter, an eager context collects the values when they are found
+         * instead of references resolved at aggregation time. sum, count and avg become simple
+         * lookups but a value modified after being collected will not be seen by the aggregation.
+         * String values are kept once each in a dictionary of the context, the aggregators only keep their codes.
+         *
+         * @param eager enables eager collection
+         * @return the builder
+         */
+        public Builder eager(boolean eager) {
+            this.eager = eager;
+            return this;
+        }
+
+        /**
+         * setup the skipUnreadCollects parameter, collects into an aggregator that is not read by any
+         * known formula (execute, when conditions, eval: names) are skipped: the field is not even read.
+         * The reads are known from the configuration and from the classes analysed so far, a formula
+         * passing the context to a function disables the skipping. Do not enable it if aggregators are
+         * read programmatically (aggregators(), processings) or by classes analysed after the collect.
+         *
+         * @param skipUnreadCollects enables skipping collects nobody reads
+         * @return the builder
+         */
+        public Builder skipUnreadCollects(boolean skipUnreadCollects) {
+            this.skipUnreadCollects = skipUnreadCollects;
+            return this;
+        }
+
+        /**
+         * the aggregator only keeps a HyperLogLog sketch of its elements: its memory is fixed
+         * (2^precision bytes) and it answers count and countDistinctApprox only
+         *
+         * @param aggregator the aggregator's name
+         * @param precision  the precision of the sketch (4 to 18)
+         * @return the builder
+         * @throws IllegalArgumentException if the precision is out of range
+         */
+        public Builder countDistinctApprox(String aggregator, int precision) {
+            return aggregator(new com.github.jpingus.model.Aggregator(aggregator, AggregatorTypes.HLL)
+                    .withParameter(AggregatorTypes.PRECISION, precision));
+        }
+
+        /**
+         * the aggregator keeps its integral values (Integer, Long, Short, Byte) in a compressed bitmap:
+         * only distinct values are kept in a few bytes each. It answers count, countDistinct and contains,
+         * other functions iterate the distinct values in ascending order. Bitmaps are united by merge.
+         *
+         * @param aggregator the aggregator's name
+         * @return the builder
+         */
+        public Builder bitmap(String aggregator) {
+            return aggregator(new com.github.jpingus.model.Aggregator(aggregator, AggregatorTypes.BITMAP));
+        }
+
+        /**
+         * the aggregator only keeps a KLL quantile sketch of its values (converted to double): O(k) values
+         * whatever the number of elements. It answers count, median and percentile, exactly as long as
+         * no more than k values were collected. The larger k the more accurate, 200 gives ranks within
+         * about 1 to 2%.
+         *
+         * @param aggregator the aggregator's name
+         * @param k          the accuracy of the sketch (at least 8)
+         * @return the builder
+         * @throws IllegalArgumentException if k is lower than 8
+         */
+        public Builder quantiles(String aggregator, int k) {
+            return aggregator(new com.github.jpingus.model.Aggregator(aggregator, AggregatorTypes.QUANTILES)
+                    .withParameter(AggregatorTypes.K, k));
+        }
+
+        /**
+         * the aggregator only keeps a Bloom filter of its elements: about 9.6 bits per distinct element for
+         * a 1% false positive probability. It answers count, countDistinctApprox and contains, contains may
+         * answer true for an object never collected (with the given probability) but never misses one.
+         * Bloom filters of the same size are united by merge.
+         *
+         * @param aggregator the aggregator's name
+         * @param expected   the expected number of distinct elements
+         * @param fpp        the false positive probability when the expected number is reached (0 to 1)
+         * @return the builder
+         * @throws IllegalArgumentException if expected is lower than 1 or fpp not in ]0,1[
+         */
+        public Builder bloomFilter(String aggregator, long expected, double fpp) {
+            return aggregator(new com.github.jpingus.model.Aggregator(aggregator, AggregatorTypes.BLOOM)
+                    .withParameter(AggregatorTypes.EXPECTED, expected)
+                    .withParameter(AggregatorTypes.FPP, fpp));
+        }
+
+        /**
+         * the aggregator keeps its fixed width values (numbers, booleans, characters) in direct ByteBuffer slabs
+         * outside of the heap, released by cleanContext or by closing the context. Any other value is not collected.
+         *
+         * @param aggregator the aggregator's name
+         * @return the builder
+         */
+        public Builder offHeap(String aggregator) {
+            return aggregator(new com.github.jpingus.model.Aggregator(aggregator, AggregatorTypes.OFF_HEAP));
+        }
+
+        /**
+         * the aggregator keeps its values on the heap up to a threshold and then in a temporary file, read back
+         * through memory-mapped segments. The file is deleted by cleanContext or by closing the context.
+         * Values must be numbers, booleans, characters, Strings or Serializable, any other value is not collected.
+         *
+         * @param aggregator the aggregator's name
+         * @param threshold  the number of values kept on the heap
+         * @return the builder
+         * @throws IllegalArgumentException if threshold is negative
+         */
+        public Builder spill(String aggregator, int threshold) {
+            return aggregator(new com.github.jpingus.model.Aggregator(aggregator, AggregatorTypes.SPILL)
+                    .withParameter(AggregatorTypes.THRESHOLD, threshold));
+        }
+
+        /**
+         * sets the type of an aggregator, as the XML <code>aggregator</code> element does: heap, column,
+         * offheap (parameter slab, the number of values per slab), spill (parameters threshold, the number of
+         * values kept on the heap, directory and segment, the bytes mapped at once), bitmap, hll (parameter precision), quantiles (parameter k), bloom (parameters expected and fpp) or the
+         * name of a class implementing {@link AggregatorStore} with a public constructor without argument.
+         * A type without name applies to all the aggregators without a type of their own.
+         * Takes precedence over the type configured for the same name.
+         *
+         * @param type the aggregator type
+         * @return the builder
+         * @throws IllegalArgumentException if the type or one of its parameters is invalid
+         */
+        public Builder aggregator(com.github.jpingus.model.Aggregator type) {
+            AggregatorTypes.store(type, classLoader != null ? classLoader : AggregatorContext.class.getClassLoader());
+            aggregatorTypes.put(type.getName(), type);
+            stores.remove(type.getName());
+            return this;
+        }
+
+        /**
+         * the aggregators without a type of their own keep the values collected in stores created by the supplier
+         * (instead of references, or of a {@link ColumnStore} in an eager context)
+         *
+         * @param store creates a store per aggregator
+         * @return the builder
+         */
+        public Builder store(Supplier<AggregatorStore> store) {
+            return store(null, store);
+        }
+
+        /**
+         * the aggregator (and its groups) keeps the values collected in stores created by the supplier.
+         * Takes precedence over the type configured for the same name.
+         *
+         * @param aggregator the aggregator's name
+         * @param store      creates a store per aggregator
+         * @return the builder
+         */
+        public Builder store(String aggregator, Supplier<AggregatorStore> store) {
+            stores.put(aggregator, store);
+            aggregatorTypes.remove(aggregator);
+            return this;
+        }
+
+        /**
+         * bounds the estimated bytes held by the aggregators of the context (values, references, indexes and
+         * sketches) and by its dictionary. When a collect exceeds the budget, FAIL throws a
+         * {@link MemoryBudgetExceededException} and SPILL moves the largest aggregators to spill stores first.
+         *
+         * @param bytes  the memory budget in bytes
+         * @param policy what to do when the budget is exceeded
+         * @return the builder
+         * @throws IllegalArgumentException if bytes is not positive or policy is null
+         */
+        public Builder memoryBudget(long bytes, MemoryPolicy policy) {
+            return memoryBudget(bytes, policy, null, SpillStore.DEFAULT_SEGMENT);
+        }
+
+        /**
+         * bounds the estimated bytes held by the aggregators of the context, the aggregators spilled by the
+         * SPILL policy write their temporary file in directory and read it back by segments of segmentBytes
+         *
+         * @param bytes        the memory budget in bytes
+         * @param policy       what to do when the budget is exceeded
+         * @param directory    the directory of the spill files, null for the default temporary directory
+         * @param segmentBytes the bytes of a spill file mapped at once when reading
+         * @return the builder
+         * @throws IllegalArgumentException if bytes or segmentBytes is not positive or policy is null
+         * @see #memoryBudget(long, MemoryPolicy)
+         */
+        public Builder memoryBudget(long bytes, MemoryPolicy policy, java.nio.file.Path directory, int segmentBytes) {
+            if (bytes <= 0)
+                throw new IllegalArgumentException("memory budget " + bytes + " must be positive");
+            if (policy == null)
+                throw new IllegalArgumentException("memory policy is required");
+            this.memoryBudget = bytes;
+            this.memoryPolicy = policy;
+            this.spillDirectory = directory;
+            this.spillSegment = SpillStore.checkSegment(segmentBytes);
+            return this;
+        }
+
         /**
          * sets the class loader to use
          *
@@ -658,15 +1598,22 @@ public class AggregatorContext implements JexlContext.NamespaceResolver, JexlCon
          * @return AggregatorContext
          */
         public AggregatorContext build() {
-            AggregatorContext context = new AggregatorContext(debug);
+            AggregatorContext context = new AggregatorContext(debug, eager, skipUnreadCollects);
             if (classLoader != null)
                 context.setClassLoader(classLoader);
             if (config != null) {
                 analyseProcessing(context, config.getProcessings());
                 analysePackages(context, config.getAnalysedPackages());
                 analyseFunction(context, config);
+                analyseAggregators(context, config);
                 analyseClass(context, config);
             }
+            aggregatorTypes.values().forEach(context::addAggregatorType);
+            stores.forEach((aggregator, store) -> context.setStore(aggregator, (arithmetic, dictionary) -> store.get()));
+            context.memoryBudget = memoryBudget;
+            context.memoryPolicy = memoryPolicy;
+            context.spillDirectory = spillDirectory;
+            context.spillSegment = spillSegment;
             return context;
         }
 
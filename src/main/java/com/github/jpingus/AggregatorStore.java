@@ -0,0 +1,50 @@
+package com.github.jpingus;
+
+/**
+ * Storage of the values collected in an aggregator. By default a context keeps references to the collected
+ * fields (resolved at aggregation time) and an eager context keeps the values in a {@link ColumnStore}.
+ * A store can be set for a whole context or per aggregator name with {@link AggregatorContext.Builder} or
+ * the XML <code>aggregator</code> element: the aggregator then keeps the values collected in that store.
+ * <p>
+ * The aggregate functions only rely on append, count and iteration, a store does not need to keep the values
+ * as long as it iterates those it wants the functions to see (e.g. a store keeping a sample).
+ */
+public interface AggregatorStore extends Iterable<Object> {
+    /**
+     * @param value the value collected, never null
+     */
+    void append(Object value);
+
+    /**
+     * @return the number of values appended since the last clear
+     */
+    int count();
+
+    void clear();
+
+    /**
+     * @return the estimated number of bytes held by the store (heap or off-heap), used by the memory budget of
+     * the context: it must be cheap as it is called on every append
+     */
+    default long footprint() {
+        return (long) count() * HeapStore.VALUE_BYTES;
+    }
+
+    /**
+     * Releases the resources held by the store (e.g. off-heap memory) when its aggregator is released
+     * (cleanContext) or its context closed, the store is not used afterwards
+     */
+    default void close() {
+    }
+
+    /**
+     * Merges the values of another store of a context being merged into this one
+     *
+     * @param other the other store
+     * @return true if merged, false to have the values the other store iterates appended one by one
+     * @throws IllegalArgumentException if the stores cannot be merged
+     */
+    default boolean merge(AggregatorStore other) {
+        return false;
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.jpingus;
+
+import com.github.jpingus.model.Aggregator;
+import org.apache.commons.jexl3.JexlArithmetic;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.BiFunction;
+
+/**
+ * The aggregator types that can be configured per aggregator name or for a whole context (XML
+ * <code>aggregator</code> element or builder methods) and the store each one keeps the collected values in:
+ * heap, column, offheap, spill, one of the sketches or the name of a class implementing {@link AggregatorStore}.
+ */
+final class AggregatorTypes {
+    static final String HEAP = "heap";
+    static final String COLUMN = "column";
+    static final String OFF_HEAP = "offheap";
+    static final String SPILL = "spill";
+    static final String HLL = "hll";
+    static final String BITMAP = "bitmap";
+    static final String QUANTILES = "quantiles";
+    static final String BLOOM = "bloom";
+    static final String PRECISION = "precision";
+    static final String K = "k";
+    static final String SLAB = "slab";
+    static final String THRESHOLD = "threshold";
+    static final String DIRECTORY = "directory";
+    static final String SEGMENT = "segment";
+    static final String EXPECTED = "expected";
+    static final String FPP = "fpp";
+    static final int DEFAULT_K = 200;
+    static final long DEFAULT_EXPECTED = 1_000_000L;
+    static final double DEFAULT_FPP = 0.01d;
+
+    private AggregatorTypes() {
+    }
+
+    /**
+     * @param type        the aggregator type
+     * @param classLoader loads the class of a custom store
+     * @return the factory of the store of the aggregator
+     * @throws IllegalArgumentException if the type or one of its parameters is invalid
+     */
+    static BiFunction<JexlArithmetic, Dictionary, AggregatorStore> store(Aggregator type, ClassLoader classLoader) {
+        String name = type.getType() == null ? "" : type.getType();
+        switch (name) {
+            case HEAP:
+                return (arithmetic, dictionary) -> new HeapStore();
+            case COLUMN:
+                return (arithmetic, dictionary) -> new ColumnStore(dictionary);
+            case OFF_HEAP: {
+                int slabValues = OffHeapStore.checkSlabValues(intParameter(type, SLAB, OffHeapStore.DEFAULT_SLAB_VALUES));
+                return (arithmetic, dictionary) -> new OffHeapStore(slabValues);
+            }
+            case SPILL: {
+                int threshold = SpillStore.checkThreshold(intParameter(type, THRESHOLD, SpillStore.DEFAULT_THRESHOLD));
+                int segment = SpillStore.checkSegment(intParameter(type, SEGMENT, SpillStore.DEFAULT_SEGMENT));
+                String directory = type.getParameter(DIRECTORY);
+                Path path = StringFunctions.isEmpty(directory) ? null : Paths.get(directory);
+                return (arithmetic, dictionary) -> new SpillStore(threshold, path, segment);
+            }
+            case HLL: {
+                int precision = HyperLogLog.checkPrecision(intParameter(type, PRECISION, HyperLogLog.DEFAULT_PRECISION));
+                return (arithmetic, dictionary) -> new SketchStore(new HyperLogLog(precision));
+            }
+            case BITMAP:
+                return (arithmetic, dictionary) -> new SketchStore(new Bitmap());
+            case QUANTILES: {
+                int k = Quantiles.checkK(intParameter(type, K, DEFAULT_K));
+                return (arithmetic, dictionary) -> new SketchStore(new Quantiles(k, arithmetic));
+            }
+            case BLOOM: {
+                long expected = longParameter(type, EXPECTED, DEFAULT_EXPECTED);
+                double fpp = doubleParameter(type, FPP, DEFAULT_FPP);
+                BloomFilter.checkParameters(expected, fpp);
+                return (arithmetic, dictionary) -> new SketchStore(new BloomFilter(expected, fpp));
+            }
+            default:
+                return custom(type, classLoader);
+        }
+    }
+
+    private static BiFunction<JexlArithmetic, Dictionary, AggregatorStore> custom(Aggregator type, ClassLoader classLoader) {
+        java.lang.Class<?> clazz;
+        try {
+            clazz = StringFunctions.isEmpty(type.getType()) ? null : classLoader.loadClass(type.getType());
+        } catch (ClassNotFoundException e) {
+            clazz = null;
+        }
+        if (clazz == null || !AggregatorStore.class.isAssignableFrom(clazz))
+            throw new IllegalArgumentException("Unknown type '" + type.getType() + "' for aggregator '" +
+                    type.getName() + "', expecting " + HEAP + ", " + COLUMN + ", " + OFF_HEAP + ", " + SPILL + ", " + HLL + ", " + BITMAP + ", " +
+                    QUANTILES + ", " + BLOOM + " or a class implementing " + AggregatorStore.class.getName());
+        java.lang.reflect.Constructor<?> constructor;
+        try {
+            constructor = clazz.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Store " + clazz.getName() + " requires a public constructor without argument", e);
+        }
+        return (arithmetic, dictionary) -> {
+            try {
+                return (AggregatorStore) constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot create store " + type.getType(), e);
+            }
+        };
+    }
+
+    private static int intParameter(Aggregator type, String parameter, int defaultValue) {
+        long value = longParameter(type, parameter, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(parameter + " '" + value + "' of aggregator '" + type.getName() + "' is out of the int range");
+        return (int) value;
+    }
+
+    private static long longParameter(Aggregator type, String parameter, long defaultValue) {
+        String value = type.getParameter(parameter);
+        try {
+            return StringFunctions.isEmpty(value) ? defaultValue : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(parameter + " '" + value + "' of aggregator '" + type.getName() + "' is not an integer", e);
+        }
+    }
+
+    private static double doubleParameter(Aggregator type, String parameter, double defaultValue) {
+        String value = type.getParameter(parameter);
+        try {
+            return StringFunctions.isEmpty(value) ? defaultValue : Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(parameter + " '" + value + "' of aggregator '" + type.getName() + "' is not a number", e);
+        }
+    }
+}
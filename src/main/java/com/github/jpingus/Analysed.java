@@ -2,11 +2,20 @@ package com.github.jpingus;
 
 import com.github.jpingus.model.Collect;
 import com.github.jpingus.model.Execute;
+import org.apache.commons.jexl3.JexlExpression;
 
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 class Analysed {
+    private static final String JOIN = "join";
+    private static final String AGGREGATE_FUNCTIONS = "sum|avg|count|contains|asArray|asSet|asIntArray|asLongArray|asDoubleArray"
+            + "|sumBy|countBy|avgBy|min|max|variance|stddev|wavg|countDistinctApprox|countDistinct"
+            + "|median|percentile|topN|bottomN|heavyHitters|histogram|logHistogram";
+    private static final Pattern AGGREGATE_CALL = Pattern.compile("(?<![\\w.:])(" + AGGREGATE_FUNCTIONS + "|" + JOIN + ")\\(");
+    private static final Pattern LITERAL_ARGUMENT = Pattern.compile("\\s*(?:'([^']*)'|\"([^\"]*)\")\\s*([,)+]?)");
     private CLASS_TYPE classType;
     private String classContext;
     private List<Collect> classCollects;
@@ -14,6 +23,11 @@ class Analysed {
     private Map<String, List<Execute>> executes;
     private Map<String, String> variables;
     private List<String> otherFields;
+    private final Map<String, JexlExpression> accessors = new HashMap<>();
+    private final Map<String, JexlExpression> expressions = new HashMap<>();
+    private Map<String, List<CompiledCollect>> compiledCollects;
+    private List<CompiledCollect> compiledClassCollects;
+
     Analysed(Class objectClass, IgnorableClassDetector ignorableClassDetector) {
         Context cx = (Context) objectClass.getDeclaredAnnotation(Context.class);
         classContext = cx == null ? null : cx.value();
@@ -162,7 +176,7 @@ class Analysed {
     private List<Collect> analyse(String field, com.github.jpingus.Collect[] collects) {
         List<Collect> ret = new ArrayList<>();
         for (com.github.jpingus.Collect collect : collects) {
-            ret.add(new Collect(field, collect.what(), collect.value(), collect.when()));
+            ret.add(new Collect(field, collect.what(), collect.value(), collect.when(), collect.groupBy(), collect.weight()));
         }
         return ret;
     }
@@ -213,17 +227,17 @@ class Analysed {
         return Objects.hash(classType, classContext, classCollects, collects, executes, variables, otherFields);
     }
 
-    void addCollectField(String field, String to, String when) {
+    void addCollectField(String field, String to, String when, String groupBy, String weight) {
         field = sanitizeFieldName(field);
-        Collect collect = new Collect(field, null, to, when);
+        Collect collect = new Collect(field, null, to, when, groupBy, weight);
         if (!collects.containsKey(field)) {
             collects.put(field, new ArrayList<>());
         }
         collects.get(field).add(collect);
     }
 
-    void addCollectClass(String what, String to, String when) {
-        classCollects.add(new Collect(null, what, to, when));
+    void addCollectClass(String what, String to, String when, String groupBy, String weight) {
+        classCollects.add(new Collect(null, what, to, when, groupBy, weight));
     }
 
     void addVariable(String field, String variable) {
@@ -239,6 +253,145 @@ class Analysed {
         }
     }
 
+    /**
+     * The compiled accessor "this.field" for a field of the analysed class
+     *
+     * @param field   the field to access
+     * @param context the context compiling the accessor
+     * @return the compiled accessor or null if it cannot be compiled
+     */
+    JexlExpression getAccessor(String field, AggregatorContext context) {
+        JexlExpression accessor = accessors.get(field);
+        if (accessor == null) {
+            accessor = context.compile("this." + field);
+            if (accessor != null)
+                accessors.put(field, accessor);
+        }
+        return accessor;
+    }
+
+    /**
+     * A compiled expression evaluated with "this" being an instance of the analysed class
+     *
+     * @param expression the expression
+     * @param context    the context compiling the expression
+     * @return the compiled expression or null if it cannot be compiled
+     */
+    JexlExpression getExpression(String expression, AggregatorContext context) {
+        JexlExpression compiled = expressions.get(expression);
+        if (compiled == null) {
+            compiled = context.compile(expression);
+            if (compiled != null)
+                expressions.put(expression, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Prepares the collects for a context, static aggregator names of the collects and of the
+     * execute formulas are interned in the context's symbol table
+     *
+     * @param context the context the analysis is cached in
+     */
+    void compile(AggregatorContext context) {
+        if (collects != null) {
+            compiledCollects = new LinkedHashMap<>();
+            collects.forEach((field, collectList) -> compiledCollects.put(field, compile(collectList, context)));
+        }
+        if (classCollects != null) {
+            compiledClassCollects = compile(classCollects, context);
+        }
+        Set<String> names = new HashSet<>();
+        Set<String> prefixes = new HashSet<>();
+        boolean known = true;
+        if (executes != null) {
+            for (Execute execute : (Iterable<Execute>) executes.values().stream().flatMap(Collection::stream)::iterator) {
+                known &= scanAggregators(execute.getJexl(), names, prefixes);
+                known &= scanAggregators(execute.getWhen(), names, prefixes);
+            }
+        }
+        for (List<CompiledCollect> compiled : compiledCollectLists()) {
+            for (CompiledCollect collect : compiled) {
+                known &= scanAggregators(collect.getWhen(), names, prefixes);
+                known &= scanAggregators(collect.getWhat(), names, prefixes);
+                known &= scanAggregators(collect.getGroupBy(), names, prefixes);
+                known &= scanAggregators(collect.getWeight(), names, prefixes);
+                if (collect.getSlot() == CompiledCollect.DYNAMIC)
+                    known &= scanAggregators(collect.getTo(), names, prefixes);
+            }
+        }
+        names.forEach(context::intern);
+        context.addReads(names, prefixes, known);
+        if (compiledCollects != null)
+            compiledCollects.forEach((field, compiled) -> compiled.forEach(collect -> context.addCollected(field,
+                    collect.getSlot() == CompiledCollect.DYNAMIC ? null : collect.getTo())));
+        if (compiledClassCollects != null)
+            compiledClassCollects.forEach(collect -> context.addCollected(null,
+                    collect.getSlot() == CompiledCollect.DYNAMIC ? null : collect.getTo()));
+    }
+
+    private List<List<CompiledCollect>> compiledCollectLists() {
+        List<List<CompiledCollect>> ret = new ArrayList<>();
+        if (compiledCollects != null)
+            ret.addAll(compiledCollects.values());
+        if (compiledClassCollects != null)
+            ret.add(compiledClassCollects);
+        return ret;
+    }
+
+    private static List<CompiledCollect> compile(List<Collect> collectList, AggregatorContext context) {
+        List<CompiledCollect> ret = new ArrayList<>(collectList.size());
+        for (Collect collect : collectList) {
+            ret.add(new CompiledCollect(collect, context));
+        }
+        return ret;
+    }
+
+    /**
+     * Extracts the aggregators read by the aggregation functions of a formula. A literal name is added
+     * to names, a literal concatenated with an expression ('total '+this.type) is added to prefixes.
+     *
+     * @param jexl     the formula (may be null)
+     * @param names    the aggregator names read
+     * @param prefixes the prefixes of aggregator names read
+     * @return false if the formula reads aggregators that cannot be known statically
+     */
+    static boolean scanAggregators(String jexl, Set<String> names, Set<String> prefixes) {
+        if (jexl == null)
+            return true;
+        boolean known = !jexl.contains(AggregatorContext.CONTEXT_VARIABLE);
+        Matcher call = AGGREGATE_CALL.matcher(jexl);
+        while (call.find()) {
+            Matcher argument = LITERAL_ARGUMENT.matcher(jexl).region(call.end(), jexl.length());
+            if (JOIN.equals(call.group(1))) {
+                if (!argument.lookingAt() || !",".equals(argument.group(3))) {
+                    known = false;
+                    continue;
+                }
+                argument.region(argument.end(), jexl.length());
+            }
+            if (!argument.lookingAt() || argument.group(3).isEmpty()) {
+                known = false;
+                continue;
+            }
+            String name = argument.group(1) != null ? argument.group(1) : argument.group(2);
+            if ("+".equals(argument.group(3))) {
+                prefixes.add(name);
+            } else {
+                names.add(name);
+            }
+        }
+        return known;
+    }
+
+    Map<String, List<CompiledCollect>> getCompiledCollects() {
+        return compiledCollects;
+    }
+
+    List<CompiledCollect> getCompiledClassCollects() {
+        return compiledClassCollects;
+    }
+
     void prune() {
         if (classCollects.isEmpty())
             classCollects = null;
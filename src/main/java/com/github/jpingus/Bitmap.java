@@ -0,0 +1,305 @@
+package com.github.jpingus;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Compressed bitmap of integral values in the spirit of Roaring bitmaps: values are split by their
+ * high bits into chunks of 2^16 values, a chunk is stored as a sorted char[] (2 bytes per value) until it
+ * holds 4096 values and then as a 8KB bitset. Only distinct values are kept, iteration is in ascending order.
+ */
+class Bitmap implements Sketch, Iterable<Object> {
+    private static final int ARRAY_MAX = 4096;
+    private static final int CHUNK_BITS = 16;
+    /**
+     * The estimated bytes of a container object and of its array header
+     */
+    private static final int CONTAINER_BYTES = 32;
+    private long[] keys = new long[4];
+    private Container[] containers = new Container[4];
+    private int size;
+    private boolean longs;
+    private long containerBytes;
+
+    @Override
+    public void add(Object value) {
+        if (value instanceof Long)
+            longs = true;
+        add(toLong(value));
+    }
+
+    void add(long value) {
+        int i = containerIndex(value >> CHUNK_BITS);
+        Container container = containers[i];
+        int before = container.bytes();
+        containers[i] = container.add(low(value));
+        containerBytes += containers[i].bytes() - before;
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            return ((Number) value).longValue();
+        throw new IllegalArgumentException("A bitmap only collects integral values, not " +
+                (value == null ? null : value.getClass().getName()));
+    }
+
+    private static int low(long value) {
+        return (int) value & 0xFFFF;
+    }
+
+    private int containerIndex(long key) {
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i >= 0)
+            return i;
+        i = -i - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = new ArrayContainer();
+        containerBytes += containers[i].bytes();
+        size++;
+        return i;
+    }
+
+    boolean contains(Object value) {
+        if (!(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte))
+            return false;
+        long v = ((Number) value).longValue();
+        int i = Arrays.binarySearch(keys, 0, size, v >> CHUNK_BITS);
+        return i >= 0 && containers[i].contains(low(v));
+    }
+
+    /**
+     * @return the number of distinct values
+     */
+    long cardinality() {
+        long ret = 0;
+        for (int i = 0; i < size; i++)
+            ret += containers[i].cardinality();
+        return ret;
+    }
+
+    @Override
+    public void merge(Sketch other) {
+        if (!(other instanceof Bitmap))
+            throw new IllegalArgumentException("Cannot merge " + other + " into a bitmap");
+        Bitmap bitmap = (Bitmap) other;
+        longs |= bitmap.longs;
+        for (int j = 0; j < bitmap.size; j++) {
+            int i = containerIndex(bitmap.keys[j]);
+            int before = containers[i].bytes();
+            containers[i] = containers[i].or(bitmap.containers[j]);
+            containerBytes += containers[i].bytes() - before;
+        }
+    }
+
+    @Override
+    public void clear() {
+        keys = new long[4];
+        containers = new Container[4];
+        size = 0;
+        longs = false;
+        containerBytes = 0;
+    }
+
+    /**
+     * @return the bytes of the containers and of their keys
+     */
+    @Override
+    public long footprint() {
+        return containerBytes + (long) keys.length * (Long.BYTES + Long.BYTES);
+    }
+
+    /**
+     * @return the distinct values in ascending order, as Long if a Long was added or else as Integer
+     */
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int container = 0;
+            private int next = advance(0, 0);
+
+            private int advance(int from, int low) {
+                for (container = from; container < size; container++, low = 0) {
+                    int found = low <= 0xFFFF ? containers[container].next(low) : -1;
+                    if (found >= 0)
+                        return found;
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Object next() {
+                if (next < 0)
+                    throw new NoSuchElementException();
+                long value = (keys[container] << CHUNK_BITS) | next;
+                next = advance(container, next + 1);
+                return longs ? (Object) value : (Object) (int) value;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "Bitmap{cardinality=" + cardinality() + '}';
+    }
+
+    private interface Container {
+        /**
+         * @return this container or the container replacing it
+         */
+        Container add(int low);
+
+        boolean contains(int low);
+
+        int cardinality();
+
+        /**
+         * @return the smallest value greater or equal to low or -1
+         */
+        int next(int low);
+
+        /**
+         * @return the union of both containers, other is left unchanged
+         */
+        Container or(Container other);
+
+        /**
+         * @return the estimated bytes of the container
+         */
+        int bytes();
+    }
+
+    private static final class ArrayContainer implements Container {
+        private char[] values = new char[4];
+        private int cardinality;
+
+        @Override
+        public Container add(int low) {
+            int i = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (i >= 0)
+                return this;
+            if (cardinality == ARRAY_MAX)
+                return toBitmap().add(low);
+            i = -i - 1;
+            if (cardinality == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = (char) low;
+            cardinality++;
+            return this;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++)
+                bitmap.add(values[i]);
+            return bitmap;
+        }
+
+        @Override
+        public boolean contains(int low) {
+            return Arrays.binarySearch(values, 0, cardinality, (char) low) >= 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public int bytes() {
+            return CONTAINER_BYTES + values.length * Character.BYTES;
+        }
+
+        @Override
+        public int next(int low) {
+            int i = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (i < 0)
+                i = -i - 1;
+            return i < cardinality ? values[i] : -1;
+        }
+
+        @Override
+        public Container or(Container other) {
+            if (other instanceof BitmapContainer)
+                return other.or(this);
+            ArrayContainer array = (ArrayContainer) other;
+            Container ret = this;
+            for (int i = 0; i < array.cardinality; i++)
+                ret = ret.add(array.values[i]);
+            return ret;
+        }
+    }
+
+    private static final class BitmapContainer implements Container {
+        private final long[] words = new long[1 << (CHUNK_BITS - 6)];
+        private int cardinality;
+
+        @Override
+        public Container add(int low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public int bytes() {
+            return CONTAINER_BYTES + words.length * Long.BYTES;
+        }
+
+        @Override
+        public int next(int low) {
+            int i = low >>> 6;
+            long word = words[i] & (-1L << low);
+            while (word == 0) {
+                if (++i == words.length)
+                    return -1;
+                word = words[i];
+            }
+            return (i << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        @Override
+        public Container or(Container other) {
+            BitmapContainer ret = new BitmapContainer();
+            if (other instanceof BitmapContainer) {
+                long[] otherWords = ((BitmapContainer) other).words;
+                for (int i = 0; i < words.length; i++) {
+                    ret.words[i] = words[i] | otherWords[i];
+                    ret.cardinality += Long.bitCount(ret.words[i]);
+                }
+            } else {
+                System.arraycopy(words, 0, ret.words, 0, words.length);
+                ret.cardinality = cardinality;
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++)
+                    ret.add(array.values[i]);
+            }
+            return ret;
+        }
+    }
+}
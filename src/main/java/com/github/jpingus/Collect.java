@@ -13,4 +13,8 @@ public @interface Collect {
     String when() default "";
 
     String what() default "this";
+
+    String groupBy() default "";
+
+    String weight() default "";
 }
@@ -0,0 +1,274 @@
+package com.github.jpingus;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.Consumer;
+
+/**
+ * Growable storage of collected values. As long as all values share the same integral (Integer, Long,
+ * Short, Byte) or floating point (Double, Float) class they are kept unboxed in a long[] or double[]
+ * column, the column falls back to an Object[] as soon as another class is appended.
+ * <p>
+ * With a dictionary, String values are kept as int codes of the dictionary and the distinct codes are
+ * tracked on append: distinct count, membership and distinct values do not decode every value.
+ */
+class Column {
+    private static final int INITIAL_CAPACITY = 16;
+    private final Dictionary dictionary;
+    private Class<?> type;
+    private long[] longs;
+    private double[] doubles;
+    private int[] codes;
+    private BitSet present;
+    private int[] distinct;
+    private int distinctSize;
+    private Object[] objects;
+    private int size;
+
+    Column() {
+        this(null);
+    }
+
+    /**
+     * @param dictionary the dictionary encoding String values, null to keep them as objects
+     */
+    Column(Dictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    void add(Object value) {
+        if (size == 0 && objects == null) {
+            type = value.getClass();
+        }
+        if (objects == null && value.getClass() == type) {
+            if (Sum.isIntegral(value)) {
+                longs = ensureCapacity(longs);
+                longs[size++] = ((Number) value).longValue();
+                return;
+            } else if (Sum.isFloating(value)) {
+                doubles = ensureCapacity(doubles);
+                doubles[size++] = ((Number) value).doubleValue();
+                return;
+            } else if (dictionary != null && type == String.class && (codes != null || size == 0)) {
+                int code = dictionary.encode((String) value);
+                if (code >= 0) {
+                    addCode(code);
+                    return;
+                }
+            }
+        }
+        if (objects == null)
+            toObjects();
+        objects = ensureCapacity(objects);
+        objects[size++] = value;
+    }
+
+    private void addCode(int code) {
+        if (codes == null) {
+            codes = new int[INITIAL_CAPACITY];
+            present = new BitSet();
+            distinct = new int[INITIAL_CAPACITY];
+        } else if (codes.length == size) {
+            codes = Arrays.copyOf(codes, grow(size));
+        }
+        codes[size++] = code;
+        if (!present.get(code)) {
+            present.set(code);
+            if (distinct.length == distinctSize)
+                distinct = Arrays.copyOf(distinct, grow(distinctSize));
+            distinct[distinctSize++] = code;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the estimated bytes held by the column, boxed values are counted as {@link HeapStore#VALUE_BYTES}
+     */
+    long footprint() {
+        long ret = 0;
+        if (longs != null)
+            ret += 8L * longs.length;
+        if (doubles != null)
+            ret += 8L * doubles.length;
+        if (codes != null)
+            ret += 4L * (codes.length + distinct.length) + present.size() / 8;
+        if (objects != null)
+            ret += 8L * objects.length + (long) (HeapStore.VALUE_BYTES - 8) * size;
+        return ret;
+    }
+
+    /**
+     * @return true if the values are String kept as codes of the dictionary
+     */
+    boolean isEncoded() {
+        return codes != null;
+    }
+
+    /**
+     * @return the number of distinct values of an encoded column
+     */
+    int distinctSize() {
+        return distinctSize;
+    }
+
+    /**
+     * @param value the value to search
+     * @return true if an encoded column holds the value, without decoding
+     */
+    boolean containsEncoded(Object value) {
+        if (!(value instanceof String))
+            return false;
+        int code = dictionary.code((String) value);
+        return code >= 0 && present.get(code);
+    }
+
+    /**
+     * Applies an action on the distinct values of an encoded column in the order they were first appended,
+     * each distinct value is decoded once
+     *
+     * @param action the action to apply on each distinct value
+     */
+    void forEachDistinct(Consumer<Object> action) {
+        for (int i = 0; i < distinctSize; i++)
+            action.accept(dictionary.decode(distinct[i]));
+    }
+
+    Object get(int index) {
+        if (codes != null)
+            return dictionary.decode(codes[index]);
+        if (longs != null)
+            return box(longs[index]);
+        if (doubles != null)
+            return type == Float.class ? (Object) (float) doubles[index] : (Object) doubles[index];
+        return objects[index];
+    }
+
+    /**
+     * @param index the index of the value
+     * @return the value as a double, without boxing when stored unboxed
+     */
+    double doubleValue(int index) {
+        if (doubles != null)
+            return doubles[index];
+        if (longs != null)
+            return longs[index];
+        return ((Number) objects[index]).doubleValue();
+    }
+
+    void forEach(Consumer<Object> action) {
+        for (int i = 0; i < size; i++)
+            action.accept(get(i));
+    }
+
+    /**
+     * @return the class of the values when stored unboxed or else null
+     */
+    Class<?> getType() {
+        return isPrimitive() ? type : null;
+    }
+
+    /**
+     * @return true if the values are stored unboxed
+     */
+    boolean isPrimitive() {
+        return longs != null || doubles != null;
+    }
+
+    /**
+     * @return a copy of a primitive column as long[] or null if values are boxed
+     */
+    long[] toLongArray() {
+        if (longs != null)
+            return Arrays.copyOf(longs, size);
+        if (doubles == null)
+            return null;
+        long[] ret = new long[size];
+        for (int i = 0; i < size; i++)
+            ret[i] = (long) doubles[i];
+        return ret;
+    }
+
+    /**
+     * @return a copy of a primitive column as double[] or null if values are boxed
+     */
+    double[] toDoubleArray() {
+        if (doubles != null)
+            return Arrays.copyOf(doubles, size);
+        if (longs == null)
+            return null;
+        double[] ret = new double[size];
+        for (int i = 0; i < size; i++)
+            ret[i] = longs[i];
+        return ret;
+    }
+
+    /**
+     * @return a copy of a primitive column as int[] or null if values are boxed
+     */
+    int[] toIntArray() {
+        if (!isPrimitive())
+            return null;
+        int[] ret = new int[size];
+        for (int i = 0; i < size; i++)
+            ret[i] = longs != null ? (int) longs[i] : (int) doubles[i];
+        return ret;
+    }
+
+    void clear() {
+        type = null;
+        longs = null;
+        doubles = null;
+        codes = null;
+        present = null;
+        distinct = null;
+        distinctSize = 0;
+        objects = null;
+        size = 0;
+    }
+
+    private Object box(long value) {
+        if (type == Integer.class)
+            return (int) value;
+        if (type == Short.class)
+            return (short) value;
+        if (type == Byte.class)
+            return (byte) value;
+        return value;
+    }
+
+    private void toObjects() {
+        Object[] boxed = new Object[Math.max(INITIAL_CAPACITY, size)];
+        for (int i = 0; i < size; i++)
+            boxed[i] = get(i);
+        longs = null;
+        doubles = null;
+        codes = null;
+        present = null;
+        distinct = null;
+        distinctSize = 0;
+        objects = boxed;
+    }
+
+    private long[] ensureCapacity(long[] array) {
+        if (array == null)
+            return new long[INITIAL_CAPACITY];
+        return array.length > size ? array : Arrays.copyOf(array, grow(array.length));
+    }
+
+    private double[] ensureCapacity(double[] array) {
+        if (array == null)
+            return new double[INITIAL_CAPACITY];
+        return array.length > size ? array : Arrays.copyOf(array, grow(array.length));
+    }
+
+    private Object[] ensureCapacity(Object[] array) {
+        return array.length > size ? array : Arrays.copyOf(array, grow(array.length));
+    }
+
+    private static int grow(int length) {
+        return length + (length >> 1) + 1;
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.jpingus;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Keeps the values collected in a column: unboxed as long[] or double[] as long as they share the same
+ * integral or floating point class, Strings as codes of the context's dictionary. This is the store of
+ * an eager context.
+ */
+public class ColumnStore implements AggregatorStore {
+    private final Column column;
+
+    public ColumnStore() {
+        this(null);
+    }
+
+    ColumnStore(Dictionary dictionary) {
+        this.column = new Column(dictionary);
+    }
+
+    Column getColumn() {
+        return column;
+    }
+
+    @Override
+    public void append(Object value) {
+        column.add(value);
+    }
+
+    @Override
+    public int count() {
+        return column.size();
+    }
+
+    @Override
+    public void clear() {
+        column.clear();
+    }
+
+    @Override
+    public long footprint() {
+        return column.footprint();
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < column.size();
+            }
+
+            @Override
+            public Object next() {
+                if (next >= column.size())
+                    throw new NoSuchElementException();
+                return column.get(next++);
+            }
+        };
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.jpingus;
+
+import com.github.jpingus.model.Collect;
+
+/**
+ * A collect prepared for a context: static aggregator names are resolved to a slot of the context
+ * so that collecting an element does not need to look the aggregator up by name.
+ */
+class CompiledCollect {
+    static final int DYNAMIC = -1;
+    private static final String EVAL = "eval:";
+    private final Collect collect;
+    private final int slot;
+
+    CompiledCollect(Collect collect, AggregatorContext context) {
+        this.collect = collect;
+        this.slot = isStatic(collect.getTo()) ? context.intern(collect.getTo()) : DYNAMIC;
+    }
+
+    static boolean isStatic(String to) {
+        return !StringFunctions.isEmpty(to) && !to.startsWith(EVAL);
+    }
+
+    String getTo() {
+        return collect.getTo();
+    }
+
+    String getWhen() {
+        return collect.getWhen();
+    }
+
+    String getWhat() {
+        return collect.getWhat();
+    }
+
+    String getGroupBy() {
+        return collect.getGroupBy();
+    }
+
+    String getWeight() {
+        return collect.getWeight();
+    }
+
+    /**
+     * @return the slot of the aggregator in the context or DYNAMIC if its name is evaluated per element
+     */
+    int getSlot() {
+        return slot;
+    }
+}
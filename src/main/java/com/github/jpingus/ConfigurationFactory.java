@@ -1,5 +1,6 @@
 package com.github.jpingus;
 
+import com.github.jpingus.model.Aggregator;
 import com.github.jpingus.model.Class;
 import com.github.jpingus.model.Collect;
 import com.github.jpingus.model.Execute;
@@ -9,6 +10,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
@@ -36,6 +38,8 @@ public class ConfigurationFactory {
     private static final String PROCESSING = "processing";
     private static final String TO = "to";
     private static final String WHAT = "what";
+    private static final String GROUP_BY = "groupBy";
+    private static final String WEIGHT = "weight";
     private static final String VARIABLE = "variable";
     private static final String NAME = "name";
     private static final String NAMESPACE = "namespace";
@@ -45,6 +49,8 @@ public class ConfigurationFactory {
     private static final String CLASS = "class";
     private static final String AGGREGATOR4J = "aggregator4j";
     private static final String CONTEXT = "context";
+    private static final String AGGREGATOR = "aggregator";
+    private static final String TYPE = "type";
 
     private ConfigurationFactory() {
     }
@@ -83,6 +89,8 @@ public class ConfigurationFactory {
                     unMarshallPackage(aggregatorConfig, level1.item(i));
                 } else if (CLASS.equals(nodeName)) {
                     unMarshallClass(aggregatorConfig, level1.item(i));
+                } else if (AGGREGATOR.equals(nodeName)) {
+                    unMarshallAggregator(aggregatorConfig, item);
                 } else {
                     LOGGER.warn("Unexpected tag :" + nodeName);
                 }
@@ -131,8 +139,10 @@ public class ConfigurationFactory {
             } else if (COLLECT.equals(item.getNodeName())) {
                 String to = getAttribute(item, TO);
                 String what = getAttribute(item, WHAT);
+                String groupBy = getAttribute(item, GROUP_BY);
+                String weight = getAttribute(item, WEIGHT);
                 if ((!StringFunctions.isEmpty(field) || !StringFunctions.isEmpty(what)) && !StringFunctions.isEmpty(to))
-                    aClass.addCollect(new Collect(field, what, to, when));
+                    aClass.addCollect(new Collect(field, what, to, when, groupBy, weight));
                 else
                     LOGGER.warn(COLLECT + " requires " + TO + " '" + to + "' and either " + FIELD + " '" + field + "' or " + WHAT + " '" + what + "' to be provided");
 
@@ -160,6 +170,24 @@ public class ConfigurationFactory {
             LOGGER.warn(NAME + " attribute missing for " + PACKAGE);
     }
 
+    private static boolean unMarshallAggregator(AggregatorConfiguration config, Node item) {
+        String name = getAttribute(item, NAME);
+        String type = getAttribute(item, TYPE);
+        if (!StringFunctions.isEmpty(type)) {
+            Aggregator aggregator = new Aggregator(name, type);
+            NamedNodeMap attributes = item.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attribute = attributes.item(i);
+                if (!NAME.equals(attribute.getNodeName()) && !TYPE.equals(attribute.getNodeName()))
+                    aggregator.withParameter(attribute.getNodeName(), attribute.getNodeValue());
+            }
+            return config.addAggregator(aggregator);
+        } else {
+            LOGGER.warn(AGGREGATOR + " requires " + TYPE + " to be provided for " + NAME + " '" + name + "'");
+        }
+        return false;
+    }
+
     private static boolean unMarshallFunction(AggregatorConfiguration config, Node item) {
         String namespace = getAttribute(item, NAMESPACE);
         String registerClass = getAttribute(item, REGISTER_CLASS);
@@ -186,6 +214,7 @@ public class ConfigurationFactory {
         merged.setProcessings(mergeList(main.getProcessings(), included.getProcessings()));
         merged.setFunctionList(mergeFunctionList(main.getFunctionList(), included.getFunctionList()));
         merged.setClassList(mergeClassList(main.getClassList(), included.getClassList()));
+        merged.setAggregatorList(mergeAggregatorList(main.getAggregatorList(), included.getAggregatorList()));
         return merged;
     }
 
@@ -204,6 +233,18 @@ public class ConfigurationFactory {
         return new ArrayList<>(merged.values());
     }
 
+    private static List<Aggregator> mergeAggregatorList(List<Aggregator> main, List<Aggregator> included) {
+        Map<String, Aggregator> merged = new LinkedHashMap<>();
+        main.forEach(aggregator -> merged.put(aggregator.getName(), aggregator));
+        included.forEach(aggregator -> {
+            if (merged.containsKey(aggregator.getName())) {
+                LOGGER.warn("Overwriting aggregator '" + aggregator.getName() + "' with type:'" + aggregator.getType() + "'");
+            }
+            merged.put(aggregator.getName(), aggregator);
+        });
+        return new ArrayList<>(merged.values());
+    }
+
     private static List<Function> mergeFunctionList(List<Function> main, List<Function> included) {
         Map<String, Function> merged = main.stream().collect(
             Collectors.toMap(Function::getNamespace, (f) -> f));
@@ -241,6 +282,7 @@ public class ConfigurationFactory {
                     .collect(Collectors.toList())
             );
         config.setFunctionList(extractFunctions(context));
+        config.setAggregatorList(new ArrayList<>(context.getAggregatorTypes().values()));
         config.setClassList(context.getAnalysedCache().entrySet().stream()
             .filter(ConfigurationFactory::isProcessable)
             .map(ConfigurationFactory::toClass)
@@ -334,18 +376,28 @@ public class ConfigurationFactory {
                 docConfig.createElement(FUNCTION)
                 , NAMESPACE, function.getNamespace())
                 , REGISTER_CLASS, function.getRegisterClass())));
+        config.getAggregatorList().forEach(aggregator -> {
+            Element aggregatorElement = withAttribute(withAttribute(
+                docConfig.createElement(AGGREGATOR)
+                , NAME, aggregator.getName())
+                , TYPE, aggregator.getType());
+            aggregator.getParameters().forEach((parameter, value) -> withAttribute(aggregatorElement, parameter, value));
+            root.appendChild(aggregatorElement);
+        });
         config.getClassList().forEach(clazz -> {
             Element classElement = withAttribute(withAttribute(
                 docConfig.createElement(CLASS)
                 , NAME, clazz.getClassName())
                 , CONTEXT, clazz.getClassContext());
             root.appendChild(classElement);
-            clazz.getCollectList().forEach(collect -> classElement.appendChild(withAttribute(withAttribute(withAttribute(withAttribute(
+            clazz.getCollectList().forEach(collect -> classElement.appendChild(withAttribute(withAttribute(withAttribute(withAttribute(withAttribute(withAttribute(
                 docConfig.createElement(COLLECT)
                 , FIELD, collect.getField())
                 , WHAT, collect.getWhat())
                 , TO, collect.getTo())
-                , WHEN, collect.getWhen())));
+                , WHEN, collect.getWhen())
+                , GROUP_BY, collect.getGroupBy())
+                , WEIGHT, collect.getWeight())));
             clazz.getExecuteList().forEach(execute -> classElement.appendChild(withAttribute(withAttribute(withAttribute(
                 docConfig.createElement(EXECUTE)
                 , FIELD, execute.getField())
@@ -0,0 +1,70 @@
+package com.github.jpingus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Strings of a context encoded as int codes in the order they are first seen, so that columns of
+ * low cardinality text only hold one instance of each distinct string. The dictionary is capped:
+ * once full, new strings are not encoded and the columns receiving them keep plain objects.
+ */
+class Dictionary {
+    static final int MAX_SIZE = 1 << 16;
+    /**
+     * The estimated bytes of an entry besides the chars of its string: String and array headers, map node,
+     * boxed code and list slot
+     */
+    private static final int ENTRY_BYTES = 96;
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private long footprint;
+
+    /**
+     * @param string the string to encode
+     * @return the code of the string, a new code if not yet encoded or -1 if the dictionary is full
+     */
+    int encode(String string) {
+        Integer code = codes.get(string);
+        if (code != null)
+            return code;
+        if (strings.size() >= MAX_SIZE)
+            return -1;
+        code = strings.size();
+        strings.add(string);
+        codes.put(string, code);
+        footprint += ENTRY_BYTES + (long) Character.BYTES * string.length();
+        return code;
+    }
+
+    /**
+     * @param string the string to look up
+     * @return the code of the string or -1 if not encoded
+     */
+    int code(String string) {
+        Integer code = codes.get(string);
+        return code != null ? code : -1;
+    }
+
+    String decode(int code) {
+        return strings.get(code);
+    }
+
+    int size() {
+        return strings.size();
+    }
+
+    /**
+     * @return the estimated bytes held by the dictionary
+     */
+    long footprint() {
+        return footprint;
+    }
+
+    void clear() {
+        codes.clear();
+        strings.clear();
+        footprint = 0;
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.jpingus;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keeps the values collected as objects in a list
+ */
+public class HeapStore implements AggregatorStore {
+    /**
+     * The estimated bytes of a boxed value and of its slot in the list
+     */
+    static final int VALUE_BYTES = 24;
+    private final List<Object> values = new ArrayList<>();
+
+    @Override
+    public void append(Object value) {
+        values.add(value);
+    }
+
+    @Override
+    public int count() {
+        return values.size();
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return values.iterator();
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.jpingus;
+
+import org.apache.commons.jexl3.JexlArithmetic;
+
+import java.lang.reflect.Array;
+import java.util.*;
+
+/**
+ * Counts of values per bucket filled in one pass in a long[]: either buckets between sorted bounds
+ * (a value goes to the bucket of the greatest bound lower or equal to it) or logarithmic buckets
+ * [base^i, base^(i+1)) which need no bounds whatever the range of the values.
+ */
+class Histogram {
+    private final JexlArithmetic arithmetic;
+    private final Object[] bounds;
+    private final double[] lowers;
+    private final double base;
+    private final double logBase;
+    private long[] counts;
+    private long below;
+    private int offset;
+
+    private Histogram(JexlArithmetic arithmetic, Object[] bounds, double base) {
+        this.arithmetic = arithmetic;
+        this.bounds = bounds;
+        this.base = base;
+        this.logBase = Math.log(base);
+        if (bounds != null) {
+            lowers = new double[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                lowers[i] = arithmetic.toDouble(bounds[i]);
+                if (i > 0 && !(lowers[i] > lowers[i - 1]))
+                    throw new IllegalArgumentException("histogram bounds " + Arrays.toString(bounds) +
+                            " must be in strictly ascending order");
+            }
+            counts = new long[bounds.length];
+        } else {
+            lowers = null;
+            counts = new long[0];
+        }
+    }
+
+    /**
+     * @param bounds the lower bounds of the buckets, an array or an Iterable of numbers in ascending order
+     */
+    static Histogram bounded(JexlArithmetic arithmetic, Object bounds) {
+        Object[] array;
+        if (bounds instanceof Iterable) {
+            List<Object> list = new ArrayList<>();
+            ((Iterable<?>) bounds).forEach(list::add);
+            array = list.toArray();
+        } else if (bounds != null && bounds.getClass().isArray()) {
+            array = new Object[Array.getLength(bounds)];
+            for (int i = 0; i < array.length; i++)
+                array[i] = Array.get(bounds, i);
+        } else {
+            throw new IllegalArgumentException("histogram bounds " + bounds + " must be an array or a list of numbers");
+        }
+        if (array.length == 0)
+            throw new IllegalArgumentException("histogram needs at least one bound");
+        return new Histogram(arithmetic, array, Double.NaN);
+    }
+
+    static Histogram logarithmic(JexlArithmetic arithmetic, double base) {
+        if (!(base > 1) || Double.isInfinite(base))
+            throw new IllegalArgumentException("histogram base " + base + " must be greater than 1");
+        return new Histogram(arithmetic, null, base);
+    }
+
+    /**
+     * @return a key identifying the buckets for memoisation
+     */
+    static String key(Object bounds) {
+        if (bounds != null && bounds.getClass().isArray()) {
+            StringBuilder ret = new StringBuilder();
+            for (int i = 0; i < Array.getLength(bounds); i++)
+                ret.append(Array.get(bounds, i)).append(',');
+            return ret.toString();
+        }
+        return String.valueOf(bounds);
+    }
+
+    void add(Object value) {
+        if (value == null)
+            return;
+        double v = arithmetic.toDouble(value);
+        if (lowers != null) {
+            int i = Arrays.binarySearch(lowers, v);
+            i = i >= 0 ? i : -i - 2;
+            if (i < 0)
+                below++;
+            else
+                counts[i]++;
+        } else if (!(v > 0)) {
+            below++;
+        } else {
+            int i = (int) Math.floor(Math.log(v) / logBase);
+            // Math.log rounding may put exact powers of the base one bucket off
+            if (Math.pow(base, i) > v)
+                i--;
+            else if (Math.pow(base, i + 1) <= v)
+                i++;
+            i = index(i);
+            counts[i]++;
+        }
+    }
+
+    private int index(int exponent) {
+        if (counts.length == 0) {
+            counts = new long[1];
+            offset = exponent;
+        } else if (exponent < offset) {
+            long[] grown = new long[counts.length + offset - exponent];
+            System.arraycopy(counts, 0, grown, offset - exponent, counts.length);
+            counts = grown;
+            offset = exponent;
+        } else if (exponent - offset >= counts.length) {
+            counts = Arrays.copyOf(counts, exponent - offset + 1);
+        }
+        return exponent - offset;
+    }
+
+    /**
+     * @return the count per lower bound in ascending order, values below the first bound (or not positive
+     * for logarithmic buckets) are counted under negative infinity if any
+     */
+    Map<Object, Long> get() {
+        Map<Object, Long> ret = new LinkedHashMap<>();
+        if (below > 0)
+            ret.put(Double.NEGATIVE_INFINITY, below);
+        for (int i = 0; i < counts.length; i++)
+            ret.put(bounds != null ? bounds[i] : Math.pow(base, offset + i), counts[i]);
+        return Collections.unmodifiableMap(ret);
+    }
+}
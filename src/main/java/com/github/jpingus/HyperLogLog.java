@@ -0,0 +1,117 @@
+package com.github.jpingus;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog distinct count estimation using 2^precision one byte registers,
+ * the standard error is about 1.04 / sqrt(2^precision) (0.8% for the default precision 14).
+ * Values are hashed from their hashCode (or bits for Long and Double values).
+ */
+class HyperLogLog implements Sketch {
+    static final int DEFAULT_PRECISION = 14;
+    static final int MIN_PRECISION = 4;
+    static final int MAX_PRECISION = 18;
+    private final int precision;
+    private final byte[] registers;
+
+    HyperLogLog(int precision) {
+        this.precision = checkPrecision(precision);
+        this.registers = new byte[1 << precision];
+    }
+
+    static int checkPrecision(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("precision " + precision + " not in [" + MIN_PRECISION + "," + MAX_PRECISION + "]");
+        return precision;
+    }
+
+    static long hash(Object value) {
+        long bits;
+        if (value instanceof Long) {
+            bits = (Long) value;
+        } else if (value instanceof Double) {
+            bits = Double.doubleToLongBits((Double) value);
+        } else {
+            bits = value.hashCode();
+        }
+        // MurmurHash3 finalizer
+        bits ^= bits >>> 33;
+        bits *= 0xff51afd7ed558ccdL;
+        bits ^= bits >>> 33;
+        bits *= 0xc4ceb9fe1a85ec53L;
+        bits ^= bits >>> 33;
+        return bits;
+    }
+
+    @Override
+    public void add(Object value) {
+        if (value == null)
+            return;
+        long hash = hash(value);
+        int index = (int) (hash >>> (Long.SIZE - precision));
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+        if (rank > registers[index])
+            registers[index] = rank;
+    }
+
+    /**
+     * @return the estimated number of distinct values
+     */
+    long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += Math.scalb(1.0d, -register);
+            if (register == 0)
+                zeros++;
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5d * m && zeros > 0)
+            estimate = m * Math.log((double) m / zeros);
+        return Math.round(estimate);
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673d;
+            case 32:
+                return 0.697d;
+            case 64:
+                return 0.709d;
+            default:
+                return 0.7213d / (1 + 1.079d / m);
+        }
+    }
+
+    int getPrecision() {
+        return precision;
+    }
+
+    @Override
+    public void merge(Sketch other) {
+        if (!(other instanceof HyperLogLog) || ((HyperLogLog) other).precision != precision)
+            throw new IllegalArgumentException("Cannot merge " + other + " into HyperLogLog of precision " + precision);
+        byte[] otherRegisters = ((HyperLogLog) other).registers;
+        for (int i = 0; i < registers.length; i++) {
+            if (otherRegisters[i] > registers[i])
+                registers[i] = otherRegisters[i];
+        }
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    @Override
+    public long footprint() {
+        return registers.length;
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog{precision=" + precision + '}';
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.jpingus;
+
+/**
+ * Thrown when the estimated footprint of a context exceeds its memory budget
+ */
+public class MemoryBudgetExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final long budget;
+    private final long footprint;
+
+    public MemoryBudgetExceededException(long budget, long footprint) {
+        super("Estimated context footprint of " + footprint + " bytes exceeds the memory budget of " + budget + " bytes");
+        this.budget = budget;
+        this.footprint = footprint;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public long getFootprint() {
+        return footprint;
+    }
+}
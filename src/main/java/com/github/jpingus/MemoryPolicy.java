@@ -0,0 +1,18 @@
+package com.github.jpingus;
+
+/**
+ * What a context does when its estimated footprint exceeds its memory budget
+ *
+ * @see AggregatorContext.Builder#memoryBudget(long, MemoryPolicy)
+ */
+public enum MemoryPolicy {
+    /**
+     * collecting throws a {@link MemoryBudgetExceededException}
+     */
+    FAIL,
+    /**
+     * the largest aggregators are moved to spill stores (temporary files), a
+     * {@link MemoryBudgetExceededException} is thrown only if the budget is still exceeded
+     */
+    SPILL
+}
@@ -0,0 +1,193 @@
+package com.github.jpingus;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Keeps fixed width values (Integer, Long, Short, Byte, Double, Float, Boolean, Character) outside of the
+ * heap, in direct ByteBuffer slabs allocated as the store grows: a value takes 9 bytes (a tag and 8 bytes)
+ * and the garbage collector only sees the slabs. Any other value is rejected with an IllegalArgumentException.
+ * <p>
+ * The slabs are released by clear and close (or by the garbage collector if the store is only dropped).
+ */
+public class OffHeapStore implements AggregatorStore {
+    static final int DEFAULT_SLAB_VALUES = 1 << 16;
+    private static final int ENTRY = 9;
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            java.lang.Class<?> unsafeClass = java.lang.Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception | LinkageError e) {
+            // before Java 9 or not allowed: released slabs are freed by the garbage collector
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final int slabValues;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private int count;
+
+    public OffHeapStore() {
+        this(DEFAULT_SLAB_VALUES);
+    }
+
+    /**
+     * @param slabValues the number of values of a slab
+     */
+    public OffHeapStore(int slabValues) {
+        this.slabValues = checkSlabValues(slabValues);
+    }
+
+    static int checkSlabValues(int slabValues) {
+        if (slabValues < 1 || slabValues > Integer.MAX_VALUE / ENTRY)
+            throw new IllegalArgumentException("slab of " + slabValues + " values not in [1," + Integer.MAX_VALUE / ENTRY + "]");
+        return slabValues;
+    }
+
+    @Override
+    public void append(Object value) {
+        Tag tag = Tag.of(value);
+        if (tag == null)
+            throw new IllegalArgumentException("An off-heap store only collects fixed width values, not " +
+                    (value == null ? null : value.getClass().getName()));
+        if (count == slabs.size() * slabValues)
+            slabs.add(ByteBuffer.allocateDirect(slabValues * ENTRY));
+        ByteBuffer slab = slabs.get(count / slabValues);
+        int offset = (count % slabValues) * ENTRY;
+        slab.put(offset, (byte) tag.ordinal());
+        slab.putLong(offset + 1, tag.bits(value));
+        count++;
+    }
+
+    Object get(int index) {
+        ByteBuffer slab = slabs.get(index / slabValues);
+        int offset = (index % slabValues) * ENTRY;
+        return Tag.VALUES[slab.get(offset)].value(slab.getLong(offset + 1));
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return the number of bytes allocated off-heap
+     */
+    @Override
+    public long footprint() {
+        return (long) slabs.size() * slabValues * ENTRY;
+    }
+
+    @Override
+    public void clear() {
+        slabs.forEach(OffHeapStore::free);
+        slabs.clear();
+        count = 0;
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    /**
+     * Frees a direct or mapped buffer now instead of when it is garbage collected, if the JDK allows it
+     */
+    static void free(ByteBuffer slab) {
+        if (INVOKE_CLEANER == null)
+            return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, slab);
+        } catch (ReflectiveOperationException e) {
+            // left to the garbage collector
+        }
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Object next() {
+                if (next >= count)
+                    throw new NoSuchElementException();
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * The class of a fixed width value stored as 8 bytes
+     */
+    enum Tag {
+        INTEGER, LONG, SHORT, BYTE, DOUBLE, FLOAT, BOOLEAN, CHARACTER;
+        static final Tag[] VALUES = values();
+
+        static Tag of(Object value) {
+            if (value instanceof Integer) return INTEGER;
+            if (value instanceof Long) return LONG;
+            if (value instanceof Double) return DOUBLE;
+            if (value instanceof Short) return SHORT;
+            if (value instanceof Byte) return BYTE;
+            if (value instanceof Float) return FLOAT;
+            if (value instanceof Boolean) return BOOLEAN;
+            if (value instanceof Character) return CHARACTER;
+            return null;
+        }
+
+        long bits(Object value) {
+            switch (this) {
+                case DOUBLE:
+                case FLOAT:
+                    return Double.doubleToRawLongBits(((Number) value).doubleValue());
+                case BOOLEAN:
+                    return (Boolean) value ? 1 : 0;
+                case CHARACTER:
+                    return (Character) value;
+                default:
+                    return ((Number) value).longValue();
+            }
+        }
+
+        Object value(long bits) {
+            switch (this) {
+                case INTEGER:
+                    return (int) bits;
+                case LONG:
+                    return bits;
+                case SHORT:
+                    return (short) bits;
+                case BYTE:
+                    return (byte) bits;
+                case DOUBLE:
+                    return Double.longBitsToDouble(bits);
+                case FLOAT:
+                    return (float) Double.longBitsToDouble(bits);
+                case BOOLEAN:
+                    return bits != 0;
+                default:
+                    return (char) bits;
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.github.jpingus;
 
 import com.github.jpingus.model.ProcessTrace;
+import org.apache.commons.jexl3.JexlExpression;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -42,6 +43,7 @@ public class Processor {
             aggregatorContext.setPackageStarts(
                     Collections.singletonList(o.getClass().getPackage().getName()));
         }
+        aggregatorContext.newEpoch();
         aggregatorContext.preProcess(o);
         process(prefix, o, aggregatorContext, executors);
         executors.values().stream()
@@ -49,6 +51,7 @@ public class Processor {
                 .filter(Processor::notExecuted)
                 .forEach(e -> execute(e, aggregatorContext));
         aggregatorContext.postProcess(o);
+        aggregatorContext.newEpoch();
         return aggregatorContext;
     }
 
@@ -118,34 +121,45 @@ public class Processor {
                         }
                     }));
             for (String field : analysed.getVariables().keySet()) {
-                localContext.addVariable(analysed.getVariables().get(field), get(o, field, localContext));
+                localContext.addVariable(analysed.getVariables().get(field), get(o, analysed, field, localContext));
             }
             //First potentially seek deeper.
             for (String field : analysed.getOtherFields()) {
-                process(prefix + "." + field, get(o, field, localContext), localContext,
+                process(prefix + "." + field, get(o, analysed, field, localContext), localContext,
                         executeContexts);
             }
             //Collect the fields
-            for (String field : analysed.getCollects().keySet()) {
+            for (Map.Entry<String, List<CompiledCollect>> fieldCollects : analysed.getCompiledCollects().entrySet()) {
+                String field = fieldCollects.getKey();
                 String add = prefix + "." + field;
                 Optional.ofNullable(executeContexts.get(add))
                         .orElse(Collections.emptyList()).stream().filter(Processor::notExecuted)
                         .forEach(e -> execute(e, localContext));
-                if (!isNull(o, field, localContext)) {
-                    for (com.github.jpingus.model.Collect collect : analysed.getCollects().get(field)) {
-                        if (applicable(o, collect.getWhen(), localContext)) {
-                            localContext.collect(evaluate(o, collect.getTo(), localContext), add);
+                if (allUnread(fieldCollects.getValue(), localContext))
+                    continue;
+                Object value = get(o, analysed, field, localContext);
+                if (value != null) {
+                    Reference reference = new Reference(o, analysed.getAccessor(field, localContext));
+                    for (CompiledCollect collect : fieldCollects.getValue()) {
+                        if (!localContext.isUnread(collect) && applicable(o, collect.getWhen(), localContext)) {
+                            collect(o, analysed, collect, add, reference, value, localContext);
                         }
                     }
                 }
             }
-            if (analysed.getClassCollects() != null) {
-                for (com.github.jpingus.model.Collect collect : analysed.getClassCollects()) {
-                    String formula = "(" + executeFieldsFromFormula(prefix, collect.getWhat(), executeContexts, localContext) + ")";
+            if (analysed.getCompiledClassCollects() != null) {
+                for (CompiledCollect collect : analysed.getCompiledClassCollects()) {
+                    if (localContext.isUnread(collect))
+                        continue;
+                    String formula = executeFieldsFromFormula(prefix, collect.getWhat(), executeContexts, localContext);
 
-                    if (applicable(o, collect.getWhen(), localContext) && !isNull(formula, localContext)) {
-                        localContext.collect(evaluate(o, collect.getTo(), localContext),
-                                formula);
+                    if (applicable(o, collect.getWhen(), localContext)) {
+                        JexlExpression what = analysed.getExpression(collect.getWhat(), localContext);
+                        localContext.set("this", o);
+                        Object value = localContext.evaluate(what);
+                        if (value != null) {
+                            collect(o, analysed, collect, formula, new Reference(o, what), value, localContext);
+                        }
                     }
                 }
             }
@@ -154,6 +168,35 @@ public class Processor {
         }
     }
 
+    private static void collect(Object o, Analysed analysed, CompiledCollect collect, String objectReference,
+                                Reference reference, Object value, AggregatorContext localContext) {
+        Object key = null;
+        if (collect.getGroupBy() != null) {
+            localContext.set("this", o);
+            key = localContext.evaluate(analysed.getExpression(collect.getGroupBy(), localContext));
+        }
+        Object weight = null;
+        if (collect.getWeight() != null) {
+            localContext.set("this", o);
+            weight = localContext.evaluate(analysed.getExpression(collect.getWeight(), localContext));
+            if (weight == null)
+                weight = 0;
+        }
+        if (collect.getSlot() == CompiledCollect.DYNAMIC) {
+            localContext.collect(evaluate(o, collect.getTo(), localContext), objectReference, reference, value, key, weight);
+        } else {
+            localContext.collect(collect.getSlot(), collect.getTo(), objectReference, reference, value, key, weight);
+        }
+    }
+
+    private static boolean allUnread(List<CompiledCollect> collects, AggregatorContext localContext) {
+        for (CompiledCollect collect : collects) {
+            if (!localContext.isUnread(collect))
+                return false;
+        }
+        return true;
+    }
+
     private static boolean notExecuted(ExecuteContext executeContext) {
         return !executeContext.executed;
     }
@@ -188,17 +231,13 @@ public class Processor {
         e.executed = true;
     }
 
-    private static boolean isNull(String formula, AggregatorContext localContext) {
-        return localContext.evaluate(formula) == null;
-    }
-
-    private static Object get(Object o, String fieldName, AggregatorContext localContext) {
+    private static Object get(Object o, Analysed analysed, String fieldName, AggregatorContext localContext) {
         if (StringFunctions.isEmpty(fieldName) || fieldName.contains("$"))
             return null;
         localContext.set("this", o);
         if (localContext.isDebug())
             LOGGER.debug("Get " + o.getClass() + " " + fieldName);
-        return localContext.evaluate("this." + fieldName);
+        return localContext.evaluate(analysed.getAccessor(fieldName, localContext));
 
     }
 
@@ -213,10 +252,6 @@ public class Processor {
         return evaluated == null ? "null" : evaluated.toString();
     }
 
-    private static boolean isNull(Object o, String fieldName, AggregatorContext localContext) {
-        return get(o, fieldName, localContext) == null;
-    }
-
     private static boolean applicable(Object o, String when, AggregatorContext localContext) {
         if (StringFunctions.isEmpty(when))
             return true;
@@ -0,0 +1,197 @@
+package com.github.jpingus;
+
+import org.apache.commons.jexl3.JexlArithmetic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * KLL quantile sketch: values are kept in levels of compactors, an item of level h stands for 2^h values.
+ * When the sketch is full the first level over its capacity is sorted and half of its items (every other
+ * one) are promoted to the next level. Capacities shrink geometrically (2/3) from the top level down, so
+ * the sketch holds O(k) items whatever the number of values. Until the first compaction (more than k values)
+ * the sketch is exact.
+ */
+class Quantiles implements Sketch {
+    private static final double CAPACITY_RATIO = 2.0d / 3.0d;
+    private final int k;
+    private final JexlArithmetic arithmetic;
+    private final List<Level> levels = new ArrayList<>();
+    private final Random random;
+    private int size;
+    private int maxSize;
+
+    Quantiles(int k, JexlArithmetic arithmetic) {
+        this.k = checkK(k);
+        this.arithmetic = arithmetic;
+        this.random = new Random(k);
+        grow();
+    }
+
+    static int checkK(int k) {
+        if (k < 8)
+            throw new IllegalArgumentException("k " + k + " must be at least 8");
+        return k;
+    }
+
+    /**
+     * Linear interpolation between the closest ranks of sorted values
+     *
+     * @param sorted   the values sorted in ascending order
+     * @param fraction the quantile between 0 and 1
+     * @return the quantile or null if there is no value
+     */
+    static Double interpolate(double[] sorted, double fraction) {
+        if (sorted.length == 0)
+            return null;
+        double position = fraction * (sorted.length - 1);
+        int lower = (int) Math.floor(position);
+        int upper = (int) Math.ceil(position);
+        return sorted[lower] + (position - lower) * (sorted[upper] - sorted[lower]);
+    }
+
+    static double fraction(Number percent) {
+        double fraction = percent.doubleValue() / 100;
+        if (!(fraction >= 0 && fraction <= 1))
+            throw new IllegalArgumentException("percentile " + percent + " not in [0,100]");
+        return fraction;
+    }
+
+    private void grow() {
+        levels.add(new Level());
+        maxSize = 0;
+        for (int h = 0; h < levels.size(); h++)
+            maxSize += capacity(h);
+    }
+
+    private int capacity(int h) {
+        int depth = levels.size() - h - 1;
+        return (int) Math.ceil(Math.pow(CAPACITY_RATIO, depth) * k) + 1;
+    }
+
+    @Override
+    public void add(Object value) {
+        if (value == null)
+            return;
+        levels.get(0).add(arithmetic.toDouble(value));
+        size++;
+        if (size >= maxSize)
+            compress();
+    }
+
+    private void compress() {
+        for (int h = 0; h < levels.size(); h++) {
+            Level level = levels.get(h);
+            if (level.size >= capacity(h)) {
+                if (h + 1 >= levels.size())
+                    grow();
+                level.compactInto(levels.get(h + 1), random.nextBoolean() ? 1 : 0);
+                break;
+            }
+        }
+        size = 0;
+        for (Level level : levels)
+            size += level.size;
+    }
+
+    /**
+     * @param fraction the quantile between 0 and 1
+     * @return the estimated quantile (exact while no compaction happened) or null if empty
+     */
+    Double quantile(double fraction) {
+        if (levels.size() == 1) {
+            double[] sorted = Arrays.copyOf(levels.get(0).items, levels.get(0).size);
+            Arrays.sort(sorted);
+            return interpolate(sorted, fraction);
+        }
+        double[] items = new double[size];
+        long[] weights = new long[size];
+        Integer[] order = new Integer[size];
+        int n = 0;
+        long total = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            Level level = levels.get(h);
+            for (int i = 0; i < level.size; i++, n++) {
+                items[n] = level.items[i];
+                weights[n] = 1L << h;
+                order[n] = n;
+                total += weights[n];
+            }
+        }
+        if (n == 0)
+            return null;
+        Arrays.sort(order, (a, b) -> Double.compare(items[a], items[b]));
+        double rank = fraction * total;
+        long cumulative = 0;
+        for (Integer i : order) {
+            cumulative += weights[i];
+            if (cumulative >= rank)
+                return items[i];
+        }
+        return items[order[n - 1]];
+    }
+
+    @Override
+    public void merge(Sketch other) {
+        if (!(other instanceof Quantiles))
+            throw new IllegalArgumentException("Cannot merge " + other + " into quantiles");
+        Quantiles quantiles = (Quantiles) other;
+        while (levels.size() < quantiles.levels.size())
+            grow();
+        for (int h = 0; h < quantiles.levels.size(); h++) {
+            Level level = quantiles.levels.get(h);
+            for (int i = 0; i < level.size; i++)
+                levels.get(h).add(level.items[i]);
+        }
+        size += quantiles.size;
+        while (size >= maxSize)
+            compress();
+    }
+
+    @Override
+    public void clear() {
+        levels.clear();
+        size = 0;
+        grow();
+    }
+
+    @Override
+    public long footprint() {
+        long ret = 0;
+        for (Level level : levels)
+            ret += (long) level.items.length * Double.BYTES;
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return "Quantiles{k=" + k + '}';
+    }
+
+    private static final class Level {
+        private double[] items = new double[8];
+        private int size;
+
+        void add(double item) {
+            if (size == items.length)
+                items = Arrays.copyOf(items, size * 2);
+            items[size++] = item;
+        }
+
+        /**
+         * Sorts the level and moves every other item (starting at offset) of its even-length prefix to the
+         * next level, the last item of an odd level stays in the level so that no weight is lost or added
+         */
+        void compactInto(Level next, int offset) {
+            Arrays.sort(items, 0, size);
+            int even = size & ~1;
+            for (int i = offset; i < even; i += 2)
+                next.add(items[i]);
+            if (even < size)
+                items[0] = items[even];
+            size -= even;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.jpingus;
+
+import org.apache.commons.jexl3.JexlExpression;
+
+/**
+ * Handle on a collected element: the object holding it and the compiled accessor reading it.
+ * The value is read when the aggregator is evaluated, not when the element is collected.
+ */
+class Reference {
+    private final Object target;
+    private final JexlExpression accessor;
+
+    Reference(Object target, JexlExpression accessor) {
+        this.target = target;
+        this.accessor = accessor;
+    }
+
+    /**
+     * @param value a value already read
+     * @return a reference resolving to the value itself
+     */
+    static Reference of(Object value) {
+        return new Reference(value, null);
+    }
+
+    /**
+     * Reads the referenced value, "this" is bound to the target in the context
+     *
+     * @param context the context to evaluate the accessor against
+     * @return the current value of the element
+     */
+    Object resolve(AggregatorContext context) {
+        if (accessor == null)
+            return target;
+        context.set("this", target);
+        return context.evaluate(accessor);
+    }
+}
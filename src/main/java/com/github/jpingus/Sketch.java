@@ -0,0 +1,24 @@
+package com.github.jpingus;
+
+/**
+ * Bounded memory summary of the values collected by an aggregator configured with it,
+ * such an aggregator counts its elements but does not keep them.
+ */
+interface Sketch {
+    void add(Object value);
+
+    /**
+     * Adds the values summarised by another sketch of the same kind
+     *
+     * @param other the sketch to merge
+     * @throws IllegalArgumentException if the sketches cannot be merged
+     */
+    void merge(Sketch other);
+
+    void clear();
+
+    /**
+     * @return the estimated bytes held by the sketch (registers, containers, bit words, levels)
+     */
+    long footprint();
+}
@@ -0,0 +1,66 @@
+package com.github.jpingus;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * Only counts the values collected and feeds them to a sketch, an iterable sketch (bitmap) gives the
+ * values to iterate. Stores of sketches of the same kind are merged by merging the sketches.
+ */
+class SketchStore implements AggregatorStore {
+    private final Sketch sketch;
+    private int size;
+
+    SketchStore(Sketch sketch) {
+        this.sketch = sketch;
+    }
+
+    Sketch getSketch() {
+        return sketch;
+    }
+
+    @Override
+    public void append(Object value) {
+        sketch.add(value);
+        size++;
+    }
+
+    @Override
+    public int count() {
+        return size;
+    }
+
+    /**
+     * @return the bytes of the sketch, bounded by its parameters (or growing with the distinct values of a bitmap)
+     */
+    @Override
+    public long footprint() {
+        return sketch.footprint();
+    }
+
+    @Override
+    public void clear() {
+        sketch.clear();
+        size = 0;
+    }
+
+    @Override
+    public boolean merge(AggregatorStore other) {
+        if (!(other instanceof SketchStore))
+            return false;
+        sketch.merge(((SketchStore) other).sketch);
+        size += ((SketchStore) other).size;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<Object> iterator() {
+        return sketch instanceof Iterable ? ((Iterable<Object>) sketch).iterator() : Collections.emptyIterator();
+    }
+
+    @Override
+    public String toString() {
+        return sketch.toString();
+    }
+}
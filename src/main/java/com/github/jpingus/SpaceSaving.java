@@ -0,0 +1,99 @@
+package com.github.jpingus;
+
+import java.util.*;
+
+/**
+ * Space-Saving heavy hitters: at most k values are counted, a new value replaces the value of the smallest
+ * count and inherits that count (its possible overestimation). Any value occurring more than n/k times in
+ * n values is guaranteed to be kept.
+ * <p>
+ * The counters form an indexed binary min-heap (the position of each value is kept in a map) so that an
+ * update or an eviction costs O(log k).
+ */
+class SpaceSaving {
+    private final int k;
+    private final Map<Object, Integer> positions;
+    private Object[] values;
+    private long[] counts;
+    private int size;
+
+    SpaceSaving(int k) {
+        this.k = TopN.checkN(k);
+        int capacity = Math.min(k, 1024);
+        this.positions = new HashMap<>(capacity * 4 / 3 + 1);
+        this.values = new Object[capacity];
+        this.counts = new long[capacity];
+    }
+
+    void add(Object value) {
+        if (value == null)
+            return;
+        Integer position = positions.get(value);
+        if (position != null) {
+            counts[position]++;
+            siftDown(position);
+        } else if (size < k) {
+            if (size == values.length) {
+                int capacity = (int) Math.min(k, size * 2L);
+                values = Arrays.copyOf(values, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            values[size] = value;
+            counts[size] = 1;
+            positions.put(value, size);
+            siftUp(size++);
+        } else {
+            positions.remove(values[0]);
+            values[0] = value;
+            counts[0]++;
+            positions.put(value, 0);
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= counts[i])
+                return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        for (int child = 2 * i + 1; child < size; child = 2 * i + 1) {
+            if (child + 1 < size && counts[child + 1] < counts[child])
+                child++;
+            if (counts[i] <= counts[child])
+                return;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Object value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+        long count = counts[i];
+        counts[i] = counts[j];
+        counts[j] = count;
+        positions.put(values[i], i);
+        positions.put(values[j], j);
+    }
+
+    /**
+     * @return the values kept with their estimated count, most frequent first
+     */
+    Map<Object, Long> get() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        Map<Object, Long> ret = new LinkedHashMap<>();
+        for (Integer i : order)
+            ret.put(values[i], counts[i]);
+        return Collections.unmodifiableMap(ret);
+    }
+}
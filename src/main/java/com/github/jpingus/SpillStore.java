@@ -0,0 +1,311 @@
+package com.github.jpingus;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Keeps the values on the heap up to a threshold, then moves them to a temporary file: values are encoded
+ * (fixed width values in 8 bytes, String, BigDecimal and BigInteger as UTF-8, other Serializable values
+ * serialized) and written through a FileChannel, iterations read them back from memory-mapped segments.
+ * The heap only holds the write buffer and the segment being read whatever the number of values.
+ * <p>
+ * The file is deleted by clear and close (not on JVM exit, close the store or its context).
+ */
+public class SpillStore implements AggregatorStore {
+    static final int DEFAULT_THRESHOLD = 1 << 20;
+    private static final int BUFFER = 1 << 16;
+    static final int DEFAULT_SEGMENT = 1 << 26;
+    private static final int STRING = OffHeapStore.Tag.VALUES.length;
+    private static final int DECIMAL = STRING + 1;
+    private static final int INTEGER = STRING + 2;
+    private static final int SERIALIZED = STRING + 3;
+    private static final int NULL = STRING + 4;
+    private final int threshold;
+    private final Path directory;
+    private final int segmentBytes;
+    private final List<Object> values = new ArrayList<>();
+    private Path file;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private long written;
+    private int count;
+
+    public SpillStore() {
+        this(DEFAULT_THRESHOLD, null);
+    }
+
+    /**
+     * @param threshold the number of values kept on the heap before spilling to disk
+     * @param directory the directory of the temporary file, null for the default temporary directory
+     */
+    public SpillStore(int threshold, Path directory) {
+        this(threshold, directory, DEFAULT_SEGMENT);
+    }
+
+    /**
+     * @param threshold    the number of values kept on the heap before spilling to disk
+     * @param directory    the directory of the temporary file, null for the default temporary directory
+     * @param segmentBytes the bytes of the file mapped at once when reading
+     */
+    public SpillStore(int threshold, Path directory, int segmentBytes) {
+        this.threshold = checkThreshold(threshold);
+        this.directory = directory;
+        this.segmentBytes = checkSegment(segmentBytes);
+    }
+
+    static int checkThreshold(int threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("spill threshold " + threshold + " must not be negative");
+        return threshold;
+    }
+
+    static int checkSegment(int segmentBytes) {
+        if (segmentBytes < 1)
+            throw new IllegalArgumentException("spill segment " + segmentBytes + " must be positive");
+        return segmentBytes;
+    }
+
+    /**
+     * @return true if the values were moved to disk
+     */
+    boolean isSpilled() {
+        return channel != null;
+    }
+
+    @Override
+    public void append(Object value) {
+        byte[] bytes = isEncoded(value) ? null : serialize(value);
+        count++;
+        if (channel == null) {
+            values.add(value);
+            if (values.size() > threshold)
+                spill();
+        } else {
+            write(value, bytes);
+        }
+    }
+
+    private void spill() {
+        try {
+            file = directory != null ? Files.createTempFile(directory, "aggregator4j", ".spill")
+                    : Files.createTempFile("aggregator4j", ".spill");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            deleteQuietly();
+            throw new UncheckedIOException("Cannot create spill file", e);
+        }
+        buffer = ByteBuffer.allocate(BUFFER);
+        for (Object value : values)
+            write(value, isEncoded(value) ? null : serialize(value));
+        values.clear();
+    }
+
+    private void write(Object value, byte[] serialized) {
+        OffHeapStore.Tag tag = OffHeapStore.Tag.of(value);
+        if (tag != null) {
+            ensureBuffer(9);
+            buffer.put((byte) tag.ordinal()).putLong(tag.bits(value));
+            return;
+        }
+        if (value == null) {
+            ensureBuffer(1);
+            buffer.put((byte) NULL);
+            return;
+        }
+        int type;
+        byte[] bytes;
+        if (serialized != null) {
+            type = SERIALIZED;
+            bytes = serialized;
+        } else {
+            type = value instanceof String ? STRING : value instanceof BigDecimal ? DECIMAL : INTEGER;
+            bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        ensureBuffer(5);
+        buffer.put((byte) type).putInt(bytes.length);
+        for (int offset = 0; offset < bytes.length; ) {
+            ensureBuffer(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void ensureBuffer(int length) {
+        if (buffer.remaining() < length)
+            flush();
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                written += channel.write(buffer, written);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write spill file " + file, e);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return true if the value is written without Java serialization
+     */
+    private static boolean isEncoded(Object value) {
+        return value == null || OffHeapStore.Tag.of(value) != null || value instanceof String
+                || value instanceof BigDecimal || value instanceof BigInteger;
+    }
+
+    private static byte[] serialize(Object value) {
+        if (!(value instanceof Serializable))
+            throw new IllegalArgumentException("A spill store only collects serializable values, not " +
+                    value.getClass().getName());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot serialize " + value.getClass().getName(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Cannot read a spilled value", e);
+        }
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return the values kept on the heap and the write buffer, the file is not counted
+     */
+    @Override
+    public long footprint() {
+        return (long) values.size() * HeapStore.VALUE_BYTES + (buffer != null ? buffer.capacity() : 0);
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+        count = 0;
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot delete spill file " + file, e);
+            } finally {
+                channel = null;
+                file = null;
+                buffer = null;
+                written = 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private void deleteQuietly() {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // the creation error is reported
+            }
+            file = null;
+        }
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        if (channel == null)
+            return values.iterator();
+        flush();
+        long size = written;
+        return new Iterator<Object>() {
+            private MappedByteBuffer segment;
+            private long start;
+            private long position;
+
+            @Override
+            public boolean hasNext() {
+                if (position < size)
+                    return true;
+                release();
+                return false;
+            }
+
+            @Override
+            public Object next() {
+                if (position >= size)
+                    throw new NoSuchElementException();
+                map(1);
+                int type = segment.get((int) (position - start));
+                if (type == NULL) {
+                    position++;
+                    return null;
+                }
+                if (type < STRING) {
+                    map(9);
+                    Object value = OffHeapStore.Tag.VALUES[type].value(segment.getLong((int) (position - start) + 1));
+                    position += 9;
+                    return value;
+                }
+                map(5);
+                int length = segment.getInt((int) (position - start) + 1);
+                map(5 + length);
+                byte[] bytes = new byte[length];
+                ByteBuffer view = segment.duplicate();
+                view.position((int) (position - start) + 5);
+                view.get(bytes);
+                position += 5 + length;
+                if (type == SERIALIZED)
+                    return deserialize(bytes);
+                String text = new String(bytes, StandardCharsets.UTF_8);
+                return type == STRING ? text : type == DECIMAL ? new BigDecimal(text) : new BigInteger(text);
+            }
+
+            /**
+             * Maps the segment starting at the current position if the current one does not hold length bytes
+             */
+            private void map(int length) {
+                if (segment != null && position + length <= start + segment.limit())
+                    return;
+                release();
+                start = position;
+                try {
+                    segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(Math.max(segmentBytes, length), size - start));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot map spill file " + file, e);
+                }
+            }
+
+            private void release() {
+                if (segment != null) {
+                    OffHeapStore.free(segment);
+                    segment = null;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.jpingus;
+
+import org.apache.commons.jexl3.JexlArithmetic;
+
+/**
+ * One pass statistics of collected values in constant memory: min and max are compared with the
+ * JEXL arithmetic (and keep the collected type) whatever the values, mean and variance use Welford's
+ * algorithm on the doubles of the Number values only.
+ */
+class Statistics {
+    private final JexlArithmetic arithmetic;
+    private long count;
+    private double mean;
+    private double m2;
+    private Object min;
+    private Object max;
+
+    Statistics(JexlArithmetic arithmetic) {
+        this.arithmetic = arithmetic;
+    }
+
+    void add(Object value) {
+        if (value == null)
+            return;
+        if (min == null || arithmetic.lessThan(value, min))
+            min = value;
+        if (max == null || arithmetic.greaterThan(value, max))
+            max = value;
+        if (!(value instanceof Number))
+            return;
+        double x = arithmetic.toDouble(value);
+        count++;
+        double delta = x - mean;
+        mean += delta / count;
+        m2 += delta * (x - mean);
+    }
+
+    /**
+     * @return the smallest value or null if nothing was added
+     */
+    Object getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value or null if nothing was added
+     */
+    Object getMax() {
+        return max;
+    }
+
+    /**
+     * @return the population variance or 0 if no number was added
+     */
+    double getVariance() {
+        return count > 0 ? m2 / count : 0.0d;
+    }
+
+    /**
+     * @return the population standard deviation or 0 if no number was added
+     */
+    double getStddev() {
+        return Math.sqrt(getVariance());
+    }
+}
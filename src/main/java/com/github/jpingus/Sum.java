@@ -0,0 +1,161 @@
+package com.github.jpingus;
+
+import org.apache.commons.jexl3.JexlArithmetic;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Running sum of collected values giving the same result as the JEXL expression "a+b+c...".
+ * Integral (Integer, Long, Short, Byte) and floating point (Double, Float) values are summed
+ * in primitives, any other combination goes through the JEXL arithmetic.
+ * <p>
+ * BigDecimal values are summed as unscaled longs at a common scale, the sum only falls back
+ * to BigDecimal additions when the unscaled value or the rescaling overflows a long. Unlike
+ * the JEXL arithmetic the total of BigDecimal values is exact (never rounded to the math context).
+ */
+class Sum {
+    private final JexlArithmetic arithmetic;
+    private Kind kind = Kind.NONE;
+    private Object first;
+    private int count;
+    private long longSum;
+    private boolean longResult;
+    private double doubleSum;
+    private long unscaled;
+    private int scale;
+    private BigDecimal decimal;
+    private Object generic;
+
+    Sum(JexlArithmetic arithmetic) {
+        this.arithmetic = arithmetic;
+    }
+
+    static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    static boolean isFloating(Object value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    /**
+     * @return true if the value can be added to a running sum: integral, floating point or BigDecimal
+     */
+    static boolean isNumber(Object value) {
+        return isIntegral(value) || isFloating(value) || value instanceof BigDecimal;
+    }
+
+    void add(Object value) {
+        if (count++ == 0) {
+            first = value;
+            if (isIntegral(value)) {
+                kind = Kind.LONG;
+                longSum = ((Number) value).longValue();
+                longResult = value instanceof Long;
+            } else if (isFloating(value)) {
+                kind = Kind.DOUBLE;
+                doubleSum = ((Number) value).doubleValue();
+            } else if (value instanceof BigDecimal) {
+                kind = Kind.DECIMAL;
+                addDecimal((BigDecimal) value);
+            } else {
+                kind = Kind.GENERIC;
+                generic = value;
+            }
+            return;
+        }
+        if (kind == Kind.LONG && isIntegral(value)) {
+            long x = longSum;
+            long y = ((Number) value).longValue();
+            long result = x + y;
+            if (((x ^ result) & (y ^ result)) >= 0) {
+                longSum = result;
+                longResult = longResult || value instanceof Long || (int) result != result;
+                return;
+            }
+        } else if (kind == Kind.DOUBLE && isFloating(value)) {
+            doubleSum += ((Number) value).doubleValue();
+            return;
+        } else if (kind == Kind.DECIMAL && value instanceof BigDecimal) {
+            addDecimal((BigDecimal) value);
+            return;
+        }
+        generic = arithmetic.add(get(), value);
+        kind = Kind.GENERIC;
+    }
+
+    private void addDecimal(BigDecimal value) {
+        if (decimal == null) {
+            BigInteger unscaledValue = value.unscaledValue();
+            if (unscaledValue.bitLength() < Long.SIZE) {
+                try {
+                    long x = unscaledValue.longValue();
+                    if (count == 1) {
+                        unscaled = x;
+                        scale = value.scale();
+                        return;
+                    }
+                    if (value.scale() > scale) {
+                        unscaled = Math.multiplyExact(unscaled, pow10(value.scale() - scale));
+                        scale = value.scale();
+                    } else if (value.scale() < scale) {
+                        x = Math.multiplyExact(x, pow10(scale - value.scale()));
+                    }
+                    unscaled = Math.addExact(unscaled, x);
+                    return;
+                } catch (ArithmeticException overflow) {
+                    // unscaled and scale still hold the sum before this value
+                }
+            }
+            if (count == 1) {
+                decimal = value;
+                return;
+            }
+            decimal = BigDecimal.valueOf(unscaled, scale);
+        }
+        decimal = decimal.add(value);
+    }
+
+    private static long pow10(int exponent) {
+        long ret = 1;
+        for (int i = 0; i < exponent; i++)
+            ret = Math.multiplyExact(ret, 10L);
+        return ret;
+    }
+
+    /**
+     * @return the sum or null if nothing was added
+     */
+    Object get() {
+        if (count == 1)
+            return first;
+        switch (kind) {
+            case LONG:
+                return longResult ? (Object) longSum : (Object) (int) longSum;
+            case DOUBLE:
+                return doubleSum;
+            case DECIMAL:
+                return decimal != null ? decimal : BigDecimal.valueOf(unscaled, scale);
+            case GENERIC:
+                return generic;
+            default:
+                return null;
+        }
+    }
+
+    void clear() {
+        kind = Kind.NONE;
+        first = null;
+        generic = null;
+        count = 0;
+        longSum = 0;
+        longResult = false;
+        doubleSum = 0;
+        unscaled = 0;
+        scale = 0;
+        decimal = null;
+    }
+
+    private enum Kind {NONE, LONG, DOUBLE, DECIMAL, GENERIC}
+}
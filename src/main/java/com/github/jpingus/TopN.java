@@ -0,0 +1,49 @@
+package com.github.jpingus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The n greatest values according to a comparator, kept in a bounded heap whose head is the
+ * smallest of the values kept: memory is O(n) whatever the number of values added.
+ */
+class TopN {
+    private final int n;
+    private final Comparator<Object> comparator;
+    private final PriorityQueue<Object> heap;
+
+    TopN(int n, Comparator<Object> comparator) {
+        this.n = checkN(n);
+        this.comparator = comparator;
+        this.heap = new PriorityQueue<>(Math.min(n, 1024), comparator);
+    }
+
+    static int checkN(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("n " + n + " must be at least 1");
+        return n;
+    }
+
+    void add(Object value) {
+        if (value == null)
+            return;
+        if (heap.size() < n) {
+            heap.add(value);
+        } else if (comparator.compare(value, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(value);
+        }
+    }
+
+    /**
+     * @return the values kept, greatest first
+     */
+    List<Object> get() {
+        List<Object> ret = new ArrayList<>(heap);
+        ret.sort(comparator.reversed());
+        return Collections.unmodifiableList(ret);
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.jpingus.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The type of an aggregator given its name (of all aggregators without a type when the name is empty): heap,
+ * column, bitmap, hll, quantiles, bloom or the class name of a store, and the parameters of the type
+ */
+public class Aggregator {
+    private String name;
+    private String type;
+    private Map<String, String> parameters;
+
+    public Aggregator() {
+        this.parameters = new LinkedHashMap<>();
+    }
+
+    public Aggregator(String name, String type) {
+        this();
+        this.name = name;
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(Map<String, String> parameters) {
+        this.parameters = parameters;
+    }
+
+    public String getParameter(String parameter) {
+        return parameters.get(parameter);
+    }
+
+    public Aggregator withParameter(String parameter, Object value) {
+        parameters.put(parameter, String.valueOf(value));
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Aggregator that = (Aggregator) o;
+
+        if (!Objects.equals(name, that.name)) return false;
+        if (!Objects.equals(type, that.type)) return false;
+        return Objects.equals(parameters, that.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = name != null ? name.hashCode() : 0;
+        result = 31 * result + (type != null ? type.hashCode() : 0);
+        result = 31 * result + (parameters != null ? parameters.hashCode() : 0);
+        return result;
+    }
+}
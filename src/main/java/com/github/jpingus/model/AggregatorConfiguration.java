@@ -9,10 +9,12 @@ public class AggregatorConfiguration {
     private List<String> processings;
     private List<Function> functionList;
     private List<Class> classList;
+    private List<Aggregator> aggregatorList;
 
     public AggregatorConfiguration() {
         this.functionList = new ArrayList<>();
         this.classList = new ArrayList<>();
+        this.aggregatorList = new ArrayList<>();
     }
 
     public List<String> getAnalysedPackages() {
@@ -47,6 +49,14 @@ public class AggregatorConfiguration {
         this.classList = classList;
     }
 
+    public List<Aggregator> getAggregatorList() {
+        return aggregatorList;
+    }
+
+    public void setAggregatorList(List<Aggregator> aggregatorList) {
+        this.aggregatorList = aggregatorList;
+    }
+
     public void setProcessing(String processing) {
         this.processings = new ArrayList<>();
         this.processings.add(processing);
@@ -60,6 +70,10 @@ public class AggregatorConfiguration {
         return classList.add(aClass);
     }
 
+    public boolean addAggregator(Aggregator aggregator) {
+        return aggregatorList.add(aggregator);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -71,6 +85,7 @@ public class AggregatorConfiguration {
 
         if (!functionList.equals(that.functionList)) return false;
         if (!classList.equals(that.classList)) return false;
+        if (!aggregatorList.equals(that.aggregatorList)) return false;
         return Objects.equals(analysedPackages, that.analysedPackages);
     }
 
@@ -78,6 +93,7 @@ public class AggregatorConfiguration {
     public int hashCode() {
         int result = functionList.hashCode();
         result = 31 * result + classList.hashCode();
+        result = 31 * result + aggregatorList.hashCode();
         result = 31 * result + (analysedPackages != null ? analysedPackages.hashCode() : 0);
         return result;
     }
@@ -8,6 +8,8 @@ public class Collect {
     private String what;
     private String to;
     private String when;
+    private String groupBy;
+    private String weight;
 
     public Collect() {
     }
@@ -19,6 +21,12 @@ public class Collect {
         this.when = "".equals(when) ? null : when;
     }
 
+    public Collect(String field, String what, String to, String when, String groupBy, String weight) {
+        this(field, what, to, when);
+        this.groupBy = "".equals(groupBy) ? null : groupBy;
+        this.weight = "".equals(weight) ? null : weight;
+    }
+
     public String getField() {
         return field;
     }
@@ -51,6 +59,22 @@ public class Collect {
         this.when = when;
     }
 
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public void setGroupBy(String groupBy) {
+        this.groupBy = groupBy;
+    }
+
+    public String getWeight() {
+        return weight;
+    }
+
+    public void setWeight(String weight) {
+        this.weight = weight;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -61,7 +85,9 @@ public class Collect {
         if (!Objects.equals(field, collect.field)) return false;
         if (!Objects.equals(what, collect.what)) return false;
         if (!Objects.equals(to, collect.to)) return false;
-        return Objects.equals(when, collect.when);
+        if (!Objects.equals(when, collect.when)) return false;
+        if (!Objects.equals(groupBy, collect.groupBy)) return false;
+        return Objects.equals(weight, collect.weight);
     }
 
     @Override
@@ -70,6 +96,8 @@ public class Collect {
         result = 31 * result + (what != null ? what.hashCode() : 0);
         result = 31 * result + (to != null ? to.hashCode() : 0);
         result = 31 * result + (when != null ? when.hashCode() : 0);
+        result = 31 * result + (groupBy != null ? groupBy.hashCode() : 0);
+        result = 31 * result + (weight != null ? weight.hashCode() : 0);
         return result;
     }
 }
@@ -0,0 +1,88 @@
+package com.github.jpingus.model;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A snapshot of the size of an aggregator context, footprints are estimations in bytes
+ * (the process trace is not counted)
+ */
+public class ContextStatistics {
+    private final int aggregators;
+    private final long entries;
+    private final long footprint;
+    private final Map<String, Long> aggregatorFootprints;
+    private final long dictionaryFootprint;
+    private final int variables;
+    private final int analysedClasses;
+
+    public ContextStatistics(int aggregators, long entries, Map<String, Long> aggregatorFootprints,
+                             long dictionaryFootprint, int variables, int analysedClasses) {
+        this.aggregators = aggregators;
+        this.entries = entries;
+        this.aggregatorFootprints = Collections.unmodifiableMap(aggregatorFootprints);
+        this.dictionaryFootprint = dictionaryFootprint;
+        this.footprint = aggregatorFootprints.values().stream().mapToLong(Long::longValue).sum() + dictionaryFootprint;
+        this.variables = variables;
+        this.analysedClasses = analysedClasses;
+    }
+
+    /**
+     * @return the number of aggregators, groups excluded
+     */
+    public int getAggregators() {
+        return aggregators;
+    }
+
+    /**
+     * @return the number of entries collected by the aggregators, groups excluded
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the estimated bytes retained by the aggregators, their groups and the dictionary of the context
+     */
+    public long getFootprint() {
+        return footprint;
+    }
+
+    /**
+     * @return the estimated bytes retained by each aggregator and its groups, by aggregator name
+     */
+    public Map<String, Long> getAggregatorFootprints() {
+        return aggregatorFootprints;
+    }
+
+    /**
+     * @return the estimated bytes of the dictionary of the Strings collected eagerly, shared by the aggregators
+     */
+    public long getDictionaryFootprint() {
+        return dictionaryFootprint;
+    }
+
+    /**
+     * @return the number of variables held by the context
+     */
+    public int getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return the number of classes analysed and cached by the context
+     */
+    public int getAnalysedClasses() {
+        return analysedClasses;
+    }
+
+    @Override
+    public String toString() {
+        return "{\"aggregators\":" + aggregators +
+                ", \"entries\":" + entries +
+                ", \"footprint\":" + footprint +
+                ", \"dictionaryFootprint\":" + dictionaryFootprint +
+                ", \"variables\":" + variables +
+                ", \"analysedClasses\":" + analysedClasses + "}";
+    }
+}
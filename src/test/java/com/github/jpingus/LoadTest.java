@@ -36,7 +36,7 @@ public class LoadTest {
         Processor.process(i, "i", context);
         double memory = (runtime.totalMemory() - runtime.freeMemory()) / memoryUnit;
         time = System.currentTimeMillis() - time;
-        LOGGER.info(String.format("%10d,%10d,%10.1f,%10d", seed, time, memory, context.size()));
+        LOGGER.info(String.format("%10d,%10d,%10.1f,%10d,%s", seed, time, memory, context.size(), context.getStatistics()));
         return i;
     }
 
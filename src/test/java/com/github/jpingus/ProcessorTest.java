@@ -1,5 +1,7 @@
 package com.github.jpingus;
 
+import com.github.jpingus.model.AggregatorConfiguration;
+import com.github.jpingus.model.ContextStatistics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.After;
@@ -7,6 +9,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
 import java.util.*;
 
 import static org.hamcrest.CoreMatchers.hasItems;
@@ -87,10 +91,520 @@ public class ProcessorTest {
         Assert.assertThat(Arrays.asList(o1), hasItems(8, 0, 5, 5, 2, 3, 3));
         Double[] o2 = myAggregatorContext.asArray("test array double");
         Assert.assertEquals(7, o2.length);
+        Assert.assertEquals(26, Arrays.stream(myAggregatorContext.asIntArray("test array int")).sum());
         myAggregatorContext.asArray("Grand total c");
         ConfigurationFactory.marshall(myAggregatorContext, System.out);
     }
 
+    @Test
+    public void testEager() {
+        AggregatorContext eagerContext = AggregatorContext.builder().eager(true).build();
+        eagerContext.register("my", Functions.class);
+        eagerContext.setPackageStarts(myAggregatorContext.getPackageStarts());
+        eagerContext.setProcessings(myAggregatorContext.getProcessings());
+        Processor.process(b, "b", eagerContext);
+        Assert.assertEquals(Integer.valueOf(162), b.total);
+        Assert.assertEquals(Integer.valueOf(26), b.total2);
+        Assert.assertEquals(Integer.valueOf(11), b.myGrandTotals.get("a").sum);
+        Assert.assertEquals(Integer.valueOf(20), b.myGrandTotals.get("b").sum);
+        Assert.assertEquals(Integer.valueOf(33), b.myGrandTotals.get("c").sum);
+        Assert.assertEquals(Integer.valueOf(12), b.doubleCount);
+        Assert.assertEquals(4.3333, b.avg2, 0.0001);
+        Assert.assertEquals("[c,a,a,a,b]", b.ccm2);
+        Assert.assertEquals(true, eagerContext.contains("All my ccm2 ids", "a"));
+        Assert.assertEquals(4.42, b.totalBig.doubleValue(), 0.001);
+        Integer[] o1 = eagerContext.asArray("test array int");
+        Assert.assertThat(Arrays.asList(o1), hasItems(8, 0, 5, 5, 2, 3, 3));
+        Double[] o2 = eagerContext.asArray("test array double");
+        Assert.assertEquals(7, o2.length);
+        int[] ints = eagerContext.asIntArray("test array int");
+        Assert.assertEquals(26, Arrays.stream(ints).sum());
+        double[] doubles = eagerContext.asDoubleArray("test array double");
+        Assert.assertEquals(26 / 1.23456, Arrays.stream(doubles).sum(), 0.0001);
+        Assert.assertEquals(26L, Arrays.stream(eagerContext.asLongArray("total2")).sum());
+    }
+
+    @Test
+    public void testDecimal() {
+        Amounts amounts = new Amounts(new BigDecimal("0.10"), new BigDecimal("0.1"), new BigDecimal("0.10"),
+                new BigDecimal("1.005"), new BigDecimal("123456789012345678.9"));
+        Processor.process(amounts, "a", AggregatorContext.builder().eager(true).build());
+        Assert.assertEquals(new BigDecimal("123456789012345680.205"), amounts.total);
+        Assert.assertEquals(new BigDecimal("1.305"), amounts.smallTotal);
+        Assert.assertEquals(0.32625, amounts.average.doubleValue(), 0.000001);
+    }
+
+    @Test
+    public void testSkipUnreadCollects() {
+        Amounts amounts = new Amounts(new BigDecimal("0.10"), new BigDecimal("1.005"));
+        AggregatorContext context = Processor.process(amounts, "a",
+                AggregatorContext.builder().skipUnreadCollects(true).build());
+        Assert.assertEquals(new BigDecimal("1.105"), amounts.total);
+        Assert.assertThat(context.aggregators(), hasItems("amount", "small amount"));
+        Assert.assertFalse(context.aggregators().contains("unused amount"));
+        context = Processor.process(amounts, "a", AggregatorContext.builder().build());
+        Assert.assertThat(context.aggregators(), hasItems("amount", "small amount", "unused amount"));
+    }
+
+    @Test
+    public void testMemoise() {
+        Amounts amounts = new Amounts(new BigDecimal("1"), new BigDecimal("2"));
+        AggregatorContext context = Processor.process(amounts, "a", AggregatorContext.builder().build());
+        Assert.assertEquals(new BigDecimal("3"), amounts.total);
+        Assert.assertEquals(new BigDecimal("1.5"), amounts.average);
+        Assert.assertSame(context.sum("amount"), context.sum("amount"));
+        amounts.amounts[0].value = new BigDecimal("10");
+        context.newEpoch();
+        Assert.assertEquals(new BigDecimal("12"), context.sum("amount"));
+        Processor.process(new Amounts(new BigDecimal("5")), "b", context);
+        Assert.assertEquals(new BigDecimal("17"), context.sum("amount"));
+        Assert.assertEquals("10,2,5", context.join(",", "amount"));
+    }
+
+    @Test
+    public void testGroupBy() {
+        for (boolean eager : new boolean[]{false, true}) {
+            Sales sales = new Sales(new Sale("north", 10, 1), new Sale("south", 5, 2), new Sale("north", 7, 3),
+                    new Sale(null, 1, 0));
+            AggregatorContext context = Processor.process(sales, "s", AggregatorContext.builder().eager(eager).build());
+            Assert.assertEquals(Integer.valueOf(23), sales.total);
+            Assert.assertEquals(Integer.valueOf(17), sales.north);
+            Assert.assertEquals(Integer.valueOf(0), sales.eastCount);
+            Assert.assertEquals(8.5, sales.northAverage, 0.0001);
+            Assert.assertEquals(Arrays.asList("north", "south"), new ArrayList<>(sales.totals.keySet()));
+            Assert.assertEquals(5, sales.totals.get("south"));
+            Assert.assertEquals(2, sales.counts.get("north"));
+            Assert.assertEquals("north,south", sales.regions);
+            Assert.assertEquals("[10, 5, 7, 1]", sales.amounts);
+            Assert.assertEquals("[10, 5,...]", sales.firstAmounts);
+            Assert.assertEquals("[...]", context.join(", ", "sales", "[", "]", 0));
+            try {
+                context.join(", ", "sales", "[", "]", -1);
+                Assert.fail("negative join length accepted");
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().contains("-1"));
+            }
+            Assert.assertEquals(Integer.valueOf(1), sales.min);
+            Assert.assertEquals(Integer.valueOf(10), sales.max);
+            Assert.assertEquals(10.6875, sales.variance, 0.000001);
+            Assert.assertEquals(Math.sqrt(10.6875), sales.stddev, 0.000001);
+            Assert.assertEquals(41 / 6.0, sales.weightedAverage, 0.000001);
+        }
+    }
+
+    @Test
+    public void testCountDistinctApprox() {
+        List<Customer> first = new ArrayList<>();
+        List<Customer> second = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            first.add(new Customer(i % 1000));
+            second.add(new Customer(500 + i % 1000));
+        }
+        AggregatorContext exact = process(first, AggregatorContext.builder().eager(true));
+        Assert.assertEquals(1000, exact.countDistinctApprox("customers"), 20);
+        Assert.assertEquals(1000, exact.countDistinctApprox("customers", 10), 100);
+        AggregatorContext sketched = process(first, AggregatorContext.builder().countDistinctApprox("customers", 12));
+        Assert.assertEquals(Integer.valueOf(20000), sketched.count("customers"));
+        Assert.assertEquals(1000, sketched.countDistinctApprox("customers"), 50);
+        Assert.assertNull(sketched.avg("customers"));
+        sketched.merge(process(second, AggregatorContext.builder().countDistinctApprox("customers", 12)));
+        Assert.assertEquals(Integer.valueOf(40000), sketched.count("customers"));
+        Assert.assertEquals(1500, sketched.countDistinctApprox("customers"), 75);
+        exact.merge(process(second, AggregatorContext.builder()));
+        Assert.assertEquals(Integer.valueOf(40000), exact.count("customers"));
+        Assert.assertEquals(1500, exact.countDistinctApprox("customers"), 30);
+    }
+
+    @Test
+    public void testBitmap() {
+        List<Customer> first = new ArrayList<>();
+        for (int i = 0; i < 20000; i++)
+            first.add(new Customer(i % 10000));
+        AggregatorContext context = process(first, AggregatorContext.builder().bitmap("customers"));
+        Assert.assertEquals(Integer.valueOf(20000), context.count("customers"));
+        Assert.assertEquals(Long.valueOf(10000), context.countDistinct("customers"));
+        Assert.assertTrue(context.contains("customers", 9999));
+        Assert.assertFalse(context.contains("customers", 10000));
+        int[] ids = context.asIntArray("customers");
+        Assert.assertEquals(10000, ids.length);
+        Assert.assertEquals(9999, ids[9999]);
+        List<Customer> second = Arrays.asList(new Customer(-5), new Customer(-1), new Customer(70000), new Customer(3));
+        context.merge(process(second, AggregatorContext.builder().bitmap("customers")));
+        Assert.assertEquals(Integer.valueOf(20004), context.count("customers"));
+        Assert.assertEquals(Long.valueOf(10003), context.countDistinct("customers"));
+        Assert.assertTrue(context.contains("customers", -5));
+        Assert.assertTrue(context.contains("customers", 70000));
+        Integer[] merged = context.asArray("customers");
+        Assert.assertEquals(Integer.valueOf(-5), merged[0]);
+        Assert.assertEquals(Integer.valueOf(70000), merged[merged.length - 1]);
+        Assert.assertEquals(Long.valueOf(10000), process(first, AggregatorContext.builder()).countDistinct("customers"));
+    }
+
+    @Test
+    public void testPercentile() {
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 1000; i > 0; i--)
+            customers.add(new Customer(i));
+        AggregatorContext context = process(customers, AggregatorContext.builder());
+        Assert.assertEquals(500.5, context.median("customers"), 0.000001);
+        Assert.assertEquals(950.05, context.percentile("customers", 95), 0.000001);
+        Assert.assertEquals(500.5, process(customers, AggregatorContext.builder().quantiles("customers", 1000))
+                .median("customers"), 0.000001);
+        customers.clear();
+        for (int i = 0; i < 100000; i++)
+            customers.add(new Customer((i * 7919) % 100000));
+        AggregatorContext sketched = process(customers, AggregatorContext.builder().quantiles("customers", 200));
+        Assert.assertEquals(50000, sketched.median("customers"), 2000);
+        Assert.assertEquals(99000, sketched.percentile("customers", 99), 2000);
+        sketched.merge(process(customers, AggregatorContext.builder().quantiles("customers", 200)));
+        Assert.assertEquals(Integer.valueOf(200000), sketched.count("customers"));
+        Assert.assertEquals(95000, sketched.percentile("customers", 95), 2000);
+    }
+
+    @Test
+    public void testTopN() {
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < 10000; i++)
+            customers.add(new Customer(i % 10 == 0 ? 42 : (i * 7919) % 10000));
+        for (AggregatorContext context : new AggregatorContext[]{
+                process(customers, AggregatorContext.builder()),
+                process(customers, AggregatorContext.builder().eager(true))}) {
+            Assert.assertEquals(Arrays.asList(9999, 9998, 9997), context.topN("customers", 3));
+            Assert.assertEquals(Arrays.asList(1, 2, 3), context.bottomN("customers", 3));
+            Map<Object, Long> hitters = context.heavyHitters("customers", 20);
+            Assert.assertEquals(42, hitters.keySet().iterator().next());
+            Assert.assertTrue(hitters.get(42) >= 1000);
+            Assert.assertEquals(20, hitters.size());
+            Assert.assertEquals(10000, hitters.values().stream().mapToLong(Long::longValue).sum());
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        List<Customer> customers = new ArrayList<>();
+        for (int id : new int[]{-5, 0, 1, 9, 10, 99, 100, 999, 1000, 5000})
+            customers.add(new Customer(id));
+        AggregatorContext context = process(customers, AggregatorContext.builder().eager(true));
+        Map<Object, Long> histogram = context.histogram("customers", new int[]{0, 10, 1000});
+        Assert.assertEquals(Arrays.asList(Double.NEGATIVE_INFINITY, 0, 10, 1000), new ArrayList<>(histogram.keySet()));
+        Assert.assertEquals(Arrays.asList(1L, 3L, 4L, 2L), new ArrayList<>(histogram.values()));
+        Assert.assertEquals(histogram, context.histogram("customers", Arrays.asList(0, 10, 1000)));
+        Map<Object, Long> log = context.logHistogram("customers", 10);
+        Assert.assertEquals(Arrays.asList(Double.NEGATIVE_INFINITY, 1.0, 10.0, 100.0, 1000.0), new ArrayList<>(log.keySet()));
+        Assert.assertEquals(Arrays.asList(2L, 2L, 2L, 2L, 2L), new ArrayList<>(log.values()));
+        Assert.assertTrue(context.histogram("unknown", new int[]{0}).isEmpty());
+    }
+
+    @Test
+    public void testBloomFilter() {
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < 100000; i += 2)
+            customers.add(new Customer(i));
+        AggregatorConfiguration config = ConfigurationFactory.unMarshall(new ByteArrayInputStream((
+                "<aggregator4j><aggregator name=\"customers\" type=\"bloom\" expected=\"50000\" fpp=\"0.01\"/>" +
+                        "<aggregator name=\"wrong\" type=\"bloom\" fpp=\"2\"/></aggregator4j>").getBytes()));
+        Assert.assertEquals(2, config.getAggregatorList().size());
+        AggregatorContext context = process(customers, AggregatorContext.builder().config(config));
+        Assert.assertEquals(Arrays.asList(config.getAggregatorList().get(0)),
+                ConfigurationFactory.extractConfig(context).getAggregatorList());
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            boolean contains = context.contains("customers", i);
+            if (i % 2 == 0)
+                Assert.assertTrue(contains);
+            else if (contains)
+                falsePositives++;
+        }
+        Assert.assertTrue(falsePositives < 1000);
+        Assert.assertEquals(50000, context.count("customers").intValue());
+        Assert.assertEquals(50000, context.countDistinctApprox("customers"), 1000);
+        AggregatorContext other = process(customers, AggregatorContext.builder().bloomFilter("customers", 50000, 0.01));
+        context.merge(other);
+        Assert.assertEquals(100000, context.count("customers").intValue());
+        Assert.assertEquals(50000, context.countDistinctApprox("customers"), 1000);
+    }
+
+    @Test
+    public void testDictionary() {
+        String[] currencies = {"EUR", "USD", "GBP"};
+        List<Payment> payments = new ArrayList<>();
+        for (int i = 0; i < 30000; i++)
+            payments.add(new Payment(new String(currencies[i % 3].toCharArray())));
+        for (AggregatorContext context : new AggregatorContext[]{
+                process(payments, AggregatorContext.builder()),
+                process(payments, AggregatorContext.builder().eager(true))}) {
+            Assert.assertEquals(new HashSet<>(Arrays.asList(currencies)), context.asSet("currencies"));
+            Assert.assertEquals(3L, context.countDistinct("currencies").longValue());
+            Assert.assertTrue(context.contains("currencies", "GBP"));
+            Assert.assertFalse(context.contains("currencies", "CHF"));
+            Assert.assertEquals("EUR,USD,GBP...", context.join(",", "currencies", "", "", 11));
+            Assert.assertEquals(30000, context.count("currencies").intValue());
+            Assert.assertEquals("EUR", context.min("currencies"));
+            Assert.assertEquals("USD", context.evaluate("max('currencies')"));
+            Assert.assertEquals(0.0d, context.variance("currencies"));
+        }
+        AggregatorContext encoded = process(payments.subList(0, 3000), AggregatorContext.builder().eager(true));
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            joined.append("EURUSDGBP");
+        Assert.assertEquals(joined.toString(), encoded.sum("currencies"));
+        Assert.assertTrue(encoded.getStatistics().getAggregatorFootprints().get("currencies") < 3000 * 8);
+        payments.add(new Payment(1));
+        AggregatorContext context = process(payments, AggregatorContext.builder().eager(true));
+        Assert.assertEquals(4L, context.countDistinct("currencies").longValue());
+        Assert.assertTrue(context.contains("currencies", 1));
+        Assert.assertTrue(context.contains("currencies", "EUR"));
+        Assert.assertEquals("EUR,USD,GBP...", context.join(",", "currencies", "", "", 11));
+    }
+
+    @Test
+    public void testStores() {
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 1; i <= 100; i++)
+            customers.add(new Customer(i));
+        AggregatorContext context = process(customers, AggregatorContext.builder().store("customers", HeapStore::new));
+        for (Customer customer : customers)
+            customer.id = 0;
+        Assert.assertEquals(5050, context.sum("customers"));
+        Assert.assertEquals(100, context.count("customers").intValue());
+        Assert.assertEquals(Arrays.asList(100, 99), context.topN("customers", 2));
+        AggregatorConfiguration config = ConfigurationFactory.unMarshall(new ByteArrayInputStream((
+                "<aggregator4j><aggregator type=\"column\"/>" +
+                        "<aggregator name=\"currencies\" type=\"" + SampleStore.class.getName() + "\"/>" +
+                        "<aggregator name=\"wrong\" type=\"java.lang.String\"/></aggregator4j>").getBytes()));
+        List<Object> objects = new ArrayList<>(customers);
+        for (int i = 0; i < 10; i++)
+            objects.add(new Payment("EUR"));
+        context = process(objects, AggregatorContext.builder().config(config));
+        Assert.assertEquals(0, context.sum("customers"));
+        Assert.assertEquals(10, context.count("currencies").intValue());
+        Assert.assertArrayEquals(new Object[]{"EUR", "EUR", "EUR"}, context.asArray("currencies"));
+        Assert.assertEquals(2, ConfigurationFactory.extractConfig(context).getAggregatorList().size());
+        context.merge(process(objects, AggregatorContext.builder().config(config)));
+        Assert.assertEquals(20, context.count("currencies").intValue());
+        Assert.assertEquals(200, context.count("customers").intValue());
+    }
+
+    @Test
+    public void testOffHeap() {
+        List<Object> objects = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++)
+            objects.add(new Customer(i));
+        objects.add(new Payment("EUR"));
+        objects.add(new Payment(2.5d));
+        AggregatorContext context = process(objects, AggregatorContext.builder()
+                .aggregator(new com.github.jpingus.model.Aggregator("customers", "offheap").withParameter("slab", 100))
+                .offHeap("currencies"));
+        Assert.assertEquals(500500, context.sum("customers"));
+        Assert.assertEquals(1000, context.count("customers").intValue());
+        Assert.assertEquals(Arrays.asList(1000, 999), context.topN("customers", 2));
+        Assert.assertEquals(500.5d, context.median("customers"), 0.0d);
+        Assert.assertEquals(1, context.count("currencies").intValue());
+        Assert.assertArrayEquals(new Object[]{2.5d}, context.asArray("currencies"));
+        context.merge(process(objects, AggregatorContext.builder().offHeap("customers")));
+        Assert.assertEquals(2000, context.count("customers").intValue());
+        context.close();
+        Assert.assertEquals(0, context.count("customers").intValue());
+        Assert.assertTrue(context.aggregators().isEmpty());
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("spill");
+        List<Object> objects = new ArrayList<>();
+        for (int i = 1; i <= 10000; i++) {
+            objects.add(new Customer(i));
+            objects.add(new Payment(i % 2 == 0 ? "EUR" : i % 3 == 0 ? new BigDecimal("1.5") : (Object) ("\u00e9" + i)));
+        }
+        AggregatorContext context = process(objects, AggregatorContext.builder()
+                .spill("customers", 100)
+                .aggregator(new com.github.jpingus.model.Aggregator("currencies", "spill")
+                        .withParameter("threshold", 10)
+                        .withParameter("directory", directory.toString())));
+        Assert.assertEquals(1, directory.toFile().list().length);
+        Assert.assertEquals(50005000, context.sum("customers"));
+        Assert.assertEquals(10000, context.count("customers").intValue());
+        Assert.assertEquals(Arrays.asList(10000, 9999), context.topN("customers", 2));
+        Assert.assertEquals("\u00e91,EUR,1.5,EUR,\u00e95...", context.join(",", "currencies", "", "", 17));
+        Assert.assertEquals(3333 + 2, context.countDistinct("currencies").intValue());
+        Assert.assertTrue(context.contains("currencies", "\u00e99997"));
+        context.close();
+        Assert.assertEquals(0, directory.toFile().list().length);
+        java.nio.file.Files.delete(directory);
+        try {
+            AggregatorContext.builder().aggregator(new com.github.jpingus.model.Aggregator("customers", "spill")
+                    .withParameter("threshold", 3_000_000_000L));
+            Assert.fail("threshold out of the int range accepted");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("3000000000"));
+        }
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        List<Object> objects = new ArrayList<>();
+        for (int i = 1; i <= 10000; i++)
+            objects.add(new Customer(i));
+        try {
+            process(objects, AggregatorContext.builder().memoryBudget(200_000, MemoryPolicy.FAIL));
+            Assert.fail("memory budget not enforced");
+        } catch (MemoryBudgetExceededException e) {
+            Assert.assertEquals(200_000, e.getBudget());
+            Assert.assertTrue(e.getFootprint() > 200_000);
+        }
+        List<Object> sparse = new ArrayList<>();
+        List<Object> distinct = new ArrayList<>();
+        for (int i = 1; i <= 10000; i++) {
+            sparse.add(new Customer(i * 70000));
+            distinct.add(new Payment("c" + i));
+        }
+        try {
+            process(sparse, AggregatorContext.builder().bitmap("customers").memoryBudget(200_000, MemoryPolicy.SPILL));
+            Assert.fail("bitmap not counted in the memory budget");
+        } catch (MemoryBudgetExceededException e) {
+            Assert.assertTrue(e.getFootprint() > e.getBudget());
+        }
+        try {
+            process(distinct, AggregatorContext.builder().eager(true).memoryBudget(500_000, MemoryPolicy.FAIL));
+            Assert.fail("dictionary not counted in the memory budget");
+        } catch (MemoryBudgetExceededException e) {
+            Assert.assertTrue(e.getFootprint() > e.getBudget());
+        }
+        java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("budget");
+        AggregatorContext context = process(objects, AggregatorContext.builder()
+                .memoryBudget(200_000, MemoryPolicy.SPILL, directory, 1024));
+        Assert.assertTrue(context.getFootprint() <= 200_000);
+        Assert.assertEquals(1, directory.toFile().list().length);
+        Assert.assertEquals(50005000, context.sum("customers"));
+        Assert.assertEquals(10000, context.count("customers").intValue());
+        Assert.assertEquals(Arrays.asList(10000, 9999), context.topN("customers", 2));
+        context.close();
+        Assert.assertEquals(0, context.getFootprint());
+        Assert.assertEquals(0, directory.toFile().list().length);
+        List<Object> payments = new ArrayList<>();
+        for (int i = 0; i < 10000; i++)
+            payments.add(new Payment(i % 2 == 0 ? Locale.FRANCE : Locale.GERMANY));
+        context = process(payments, AggregatorContext.builder().memoryBudget(200_000, MemoryPolicy.SPILL, directory, 1024));
+        Assert.assertEquals(1, directory.toFile().list().length);
+        Assert.assertEquals(10000, context.count("currencies").intValue());
+        Assert.assertEquals(2, context.countDistinct("currencies").intValue());
+        context.close();
+        java.nio.file.Files.delete(directory);
+        context = process(objects.subList(0, 1000), AggregatorContext.builder().memoryBudget(10_000_000, MemoryPolicy.FAIL));
+        Assert.assertTrue(context.contains("customers", 500));
+        Assert.assertEquals(context.getStatistics().getFootprint(), context.getFootprint());
+        context.merge(process(objects.subList(0, 10), AggregatorContext.builder()));
+        Assert.assertEquals(context.getStatistics().getFootprint(), context.getFootprint());
+        context.close();
+        Assert.assertEquals(0, context.getFootprint());
+    }
+
+    @Test
+    public void testExecuteInvalidatesFedAggregators() {
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            lines.add(new Line("c" + i % 7));
+        AggregatorContext context = process(lines, AggregatorContext.builder());
+        Assert.assertEquals(2, context.getEpoch());
+        Assert.assertEquals("c0,c1,c2,c3,c4,c5,c6", context.join(",", "codes"));
+        Assert.assertEquals(100, context.count("ranks").intValue());
+        Assert.assertEquals(lines.get(99).rank, context.max("ranks"));
+        Assert.assertEquals(lines.get(99).rank, context.evaluate("max('ranks')"));
+    }
+
+    @Test
+    public void testEagerObjectsAndStrings() {
+        List<Object> objects = Arrays.asList(new Payment(Locale.FRANCE), new Payment(new StringBuilder("USD")),
+                new Payment("EUR"), new Payment(1));
+        for (AggregatorContext.Builder builder : new AggregatorContext.Builder[]{
+                AggregatorContext.builder().eager(true),
+                AggregatorContext.builder().store("currencies", HeapStore::new)}) {
+            AggregatorContext context = process(objects, builder);
+            Assert.assertEquals(4, context.count("currencies").intValue());
+            Assert.assertEquals("fr_FR,USD,EUR,1", context.join(",", "currencies"));
+        }
+        List<Object> strings = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            strings.add(new Payment(i < 2 ? (Object) i : "c" + i));
+        Object lazy = process(strings, AggregatorContext.builder()).sum("currencies");
+        AggregatorContext eager = process(strings, AggregatorContext.builder().eager(true));
+        Assert.assertEquals("1c2c3c4c5c6c7c8c9", lazy);
+        Assert.assertEquals(lazy, eager.sum("currencies"));
+        Assert.assertEquals(10, eager.count("currencies").intValue());
+    }
+
+    @Test
+    public void testStatistics() {
+        List<Object> objects = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            objects.add(new Customer(i));
+            objects.add(new Payment("EUR"));
+        }
+        AggregatorContext context = process(objects, AggregatorContext.builder());
+        ContextStatistics statistics = context.getStatistics();
+        Assert.assertEquals(200, context.size());
+        Assert.assertEquals(2, statistics.getAggregators());
+        Assert.assertEquals(200, statistics.getEntries());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("currencies", "customers")), statistics.getAggregatorFootprints().keySet());
+        Assert.assertEquals(statistics.getFootprint(), context.getFootprint());
+        Assert.assertTrue(statistics.getFootprint() > 0);
+        Assert.assertTrue(statistics.getAnalysedClasses() >= 2);
+        context.addVariable("rate", 1.5);
+        Assert.assertEquals(statistics.getVariables() + 1, context.getStatistics().getVariables());
+        context.collect(null, "unnamed", Reference.of(1), 1, null, null);
+        Assert.assertEquals(Arrays.asList(null, "currencies", "customers"),
+                new ArrayList<>(context.getStatistics().getAggregatorFootprints().keySet()));
+        context.close();
+        Assert.assertEquals(0, context.size());
+        Assert.assertEquals(0, context.getStatistics().getFootprint());
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < 100000; i++)
+            customers.add(new Customer(i * 3));
+        long bitmap = process(customers.subList(0, 1000), AggregatorContext.builder().bitmap("customers"))
+                .getStatistics().getFootprint();
+        Assert.assertTrue(bitmap > 1000 * 2);
+        Assert.assertTrue(process(customers, AggregatorContext.builder().bitmap("customers"))
+                .getStatistics().getFootprint() > bitmap * 10);
+        Assert.assertEquals(1 << 18, process(customers, AggregatorContext.builder().countDistinctApprox("customers", 18))
+                .getStatistics().getFootprint());
+        ContextStatistics eager = process(objects, AggregatorContext.builder().eager(true)).getStatistics();
+        Assert.assertTrue(eager.getDictionaryFootprint() > 0);
+        Assert.assertEquals(eager.getFootprint(), eager.getDictionaryFootprint()
+                + eager.getAggregatorFootprints().values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    public void testSpilledStringsStayOffHeap() throws Exception {
+        java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("spill");
+        char[] chars = new char[10000];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+        List<Object> payments = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            payments.add(new Payment(large));
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        AggregatorContext context = process(payments, AggregatorContext.builder()
+                .aggregator(new com.github.jpingus.model.Aggregator("currencies", "spill")
+                        .withParameter("threshold", 10)
+                        .withParameter("directory", directory.toString())));
+        System.gc();
+        long retained = runtime.totalMemory() - runtime.freeMemory() - before;
+        Assert.assertEquals(2000, context.count("currencies").intValue());
+        Assert.assertTrue(context.getStatistics().getFootprint() < 100_000);
+        // the 2000 values joined would take 20MB
+        Assert.assertTrue("retained " + retained, retained < 8 * 1024 * 1024);
+        context.close();
+        java.nio.file.Files.delete(directory);
+    }
+
+    private static AggregatorContext process(Object o, AggregatorContext.Builder builder) {
+        AggregatorContext context = builder.build();
+        context.setPackageStarts(Collections.singletonList("com.github.jpingus"));
+        return Processor.process(o, "o", context);
+    }
+
     @Test
     public void testError() {
         AggregatorContext context = Processor.process(b, "b",
@@ -138,6 +652,154 @@ public class ProcessorTest {
         Processor.process(err);
     }
 
+    public static class Customer {
+        @Collect("customers")
+        public int id;
+
+        public Customer(int id) {
+            this.id = id;
+        }
+    }
+
+    public static class Payment {
+        @Collect("currencies")
+        public Object currency;
+
+        public Payment(Object currency) {
+            this.currency = currency;
+        }
+    }
+
+    /**
+     * Counts all the values but only keeps the first three
+     */
+    public static class SampleStore implements AggregatorStore {
+        private final List<Object> sample = new ArrayList<>();
+        private int count;
+
+        @Override
+        public void append(Object value) {
+            if (count++ < 3)
+                sample.add(value);
+        }
+
+        @Override
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public void clear() {
+            sample.clear();
+            count = 0;
+        }
+
+        @Override
+        public boolean merge(AggregatorStore other) {
+            if (!(other instanceof SampleStore))
+                return false;
+            for (Object value : other) {
+                if (sample.size() < 3)
+                    sample.add(value);
+            }
+            count += other.count();
+            return true;
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return sample.iterator();
+        }
+    }
+
+    public static class Sale {
+        @Collect(value = "regions", when = "this.region != null && !contains('regions', this.region)")
+        public String region;
+        @Collect(value = "sales", groupBy = "this.region")
+        @Collect(value = "weighted sales", weight = "this.quantity")
+        public int amount;
+        public int quantity;
+
+        public Sale(String region, int amount, int quantity) {
+            this.region = region;
+            this.amount = amount;
+            this.quantity = quantity;
+        }
+    }
+
+    public static class Sales {
+        public Sale[] sales;
+        @Execute("sum('sales')")
+        public Integer total;
+        @Execute("sumBy('sales', 'north')")
+        public Integer north;
+        @Execute("countBy('sales', 'east')")
+        public Integer eastCount;
+        @Execute("avgBy('sales', 'north')")
+        public double northAverage;
+        @Execute("sumBy('sales')")
+        public Map<Object, Object> totals;
+        @Execute("countBy('sales')")
+        public Map<Object, Object> counts;
+        @Execute("join(',', 'regions')")
+        public String regions;
+        @Execute("join(', ', 'sales', '[', ']')")
+        public String amounts;
+        @Execute("join(', ', 'sales', '[', ']', 6)")
+        public String firstAmounts;
+        @Execute("min('sales')")
+        public Integer min;
+        @Execute("max('sales')")
+        public Integer max;
+        @Execute("variance('sales')")
+        public double variance;
+        @Execute("stddev('sales')")
+        public double stddev;
+        @Execute("wavg('weighted sales')")
+        public double weightedAverage;
+
+        public Sales(Sale... sales) {
+            this.sales = sales;
+        }
+    }
+
+    public static class Line {
+        @Collect(value = "codes", when = "!contains('codes', this.code)")
+        public String code;
+        @Execute("count('ranks') + 1")
+        @Collect("ranks")
+        public Integer rank;
+
+        public Line(String code) {
+            this.code = code;
+        }
+    }
+
+    public static class Amount {
+        @Collect("amount")
+        @Collect(value = "small amount", when = "this.value < 100")
+        @Collect("unused amount")
+        public BigDecimal value;
+
+        public Amount(BigDecimal value) {
+            this.value = value;
+        }
+    }
+
+    public static class Amounts {
+        public Amount[] amounts;
+        @Execute("sum('amount')")
+        public BigDecimal total;
+        @Execute("sum('small amount')")
+        public BigDecimal smallTotal;
+        @Execute("avg('small amount')")
+        public BigDecimal average;
+
+        public Amounts(BigDecimal... values) {
+            amounts = Arrays.stream(values).map(Amount::new).toArray(Amount[]::new);
+        }
+    }
+
     class Error1 {
         @Collect("test")
         @Execute("sum('test2')")
@@ -26,6 +26,16 @@ public class TestInvoice {
         System.out.println(ConfigurationFactory.extractConfig(context));
     }
 
+    @Test
+    public void testCleanContext() {
+        AggregatorContext context = Processor.process(toTest, "t", AggregatorContext.builder().build());
+        Assert.assertEquals(Integer.valueOf(3), context.count("group.totalPrice"));
+        context.cleanContext("group");
+        Assert.assertFalse(context.aggregators().contains("group.totalPrice"));
+        Assert.assertEquals(Integer.valueOf(9), context.count("totalPrice"));
+        Assert.assertEquals(Integer.valueOf(0), context.count("group.totalPrice"));
+    }
+
     public static class GroupTotal {
 
         @Execute("sum('group.totalPrice')")